@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.core.http.HttpPipelineCallContext;
+import com.azure.core.http.HttpPipelineNextPolicy;
+import com.azure.core.http.HttpPipelineNextSyncPolicy;
+import com.azure.core.http.HttpPipelinePosition;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import jenkins.util.SystemProperties;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent requests to one storage endpoint, shared by all builds on the controller.
+ * <p>
+ * The limit follows additive increase, multiplicative decrease: every successful request raises it by
+ * {@code 1/limit}, i.e. by one per round of requests, and a {@code 429} or {@code 503 ServerBusy} response halves
+ * it. Only the first throttled response among requests started at the same limit halves it, so that a burst of
+ * rejections caused by one overload does not collapse the limit to one. Requests are retried by the SDK retry
+ * policy after this policy, so each attempt takes its own permit and backs off without holding one.
+ * <p>
+ * Uploads from agents do not go through the controller. Each gets {@link #beginAgentUpload a share} of the current
+ * limit which caps its own instance, and reports back whether it was throttled.
+ * A permit is held until the response headers arrive, not while a body is streamed.
+ */
+final class AccountThrottle implements HttpPipelinePolicy {
+    private static final int INITIAL_LIMIT = SystemProperties.getInteger(
+            AccountThrottle.class.getName() + ".initialConcurrency", 16);
+    private static final int MAX_LIMIT = SystemProperties.getInteger(
+            AccountThrottle.class.getName() + ".maxConcurrency", 128);
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVER_ERROR = 500;
+    private static final int SERVER_BUSY = 503;
+    private static final int MAX_ENDPOINTS = 64;
+
+    private static final Map<String, AccountThrottle> THROTTLES = Utils.lruMap(MAX_ENDPOINTS);
+
+    private final int maxLimit;
+    private final AtomicInteger agentUploads = new AtomicInteger();
+    /** Not a monitor, so that virtual threads waiting for a permit do not pin their carrier thread. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private long epoch;
+    private long throttled;
+
+    AccountThrottle(int initialLimit, int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+    }
+
+    /**
+     * @param endpoint blob endpoint URL of the account
+     * @return the throttle shared by all clients of the endpoint on this controller
+     */
+    static AccountThrottle forEndpoint(String endpoint) {
+        String host = URI.create(endpoint).getHost();
+        String key = host != null ? host : endpoint;
+        synchronized (THROTTLES) {
+            // only the least recently used endpoint loses its limit once there are too many
+            return THROTTLES.computeIfAbsent(key, k -> new AccountThrottle(INITIAL_LIMIT, MAX_LIMIT));
+        }
+    }
+
+    @Override
+    public HttpPipelinePosition getPipelinePosition() {
+        return HttpPipelinePosition.PER_RETRY;
+    }
+
+    @Override
+    public Mono<HttpResponse> process(HttpPipelineCallContext context, HttpPipelineNextPolicy next) {
+        // waiting for a permit blocks, so not on an event loop thread
+        return Mono.using(this::acquire, permit -> next.process().doOnNext(permit::complete), Permit::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public HttpResponse processSync(HttpPipelineCallContext context, HttpPipelineNextSyncPolicy next) {
+        Permit permit;
+        try {
+            permit = acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for a storage request"));
+        }
+        try (permit) {
+            HttpResponse response = next.processSync();
+            permit.complete(response);
+            return response;
+        }
+    }
+
+    private Permit acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                released.await();
+            }
+            inFlight++;
+            return new Permit(epoch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long startEpoch, int status) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (status == TOO_MANY_REQUESTS || status == SERVER_BUSY) {
+                throttled++;
+                if (startEpoch == epoch) {
+                    decrease();
+                }
+            } else if (status > 0 && status < SERVER_ERROR) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease() {
+        limit = Math.max(1, limit * DECREASE_FACTOR);
+        epoch++;
+    }
+
+    /**
+     * Starts an upload from an agent, which gets an equal share of the current limit with the other running agent
+     * uploads. Must be followed by {@link #endAgentUpload}.
+     *
+     * @return the number of concurrent requests the agent may make
+     */
+    int beginAgentUpload() {
+        int uploads = agentUploads.incrementAndGet();
+        lock.lock();
+        try {
+            return Math.max(1, (int) (limit / uploads));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param agentThrottled number of throttled responses the agent saw
+     */
+    void endAgentUpload(long agentThrottled) {
+        agentUploads.decrementAndGet();
+        if (agentThrottled > 0) {
+            lock.lock();
+            try {
+                throttled += agentThrottled;
+                decrease();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of throttled responses seen so far
+     */
+    long getThrottledCount() {
+        lock.lock();
+        try {
+            return throttled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("limit %d, %d in flight, %d agent uploads, %d throttled", (int) limit, inFlight,
+                    agentUploads.get(), throttled);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private final class Permit implements AutoCloseable {
+        private final long startEpoch;
+        private int status = -1;
+
+        Permit(long startEpoch) {
+            this.startEpoch = startEpoch;
+        }
+
+        void complete(HttpResponse response) {
+            status = response.getStatusCode();
+        }
+
+        @Override
+        public void close() {
+            release(startEpoch, status);
+        }
+    }
+}
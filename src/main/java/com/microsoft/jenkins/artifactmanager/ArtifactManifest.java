@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Description of every artifact archived for a build, written by {@link AzureArtifactManager#archive} so that
+ * browsing a finished build does not need to list the container.
+ * <p>
+ * The serialized form is a gzipped stream starting with {@link #MAGIC} and {@link #VERSION}, followed by the
+ * entry count and the entries in path order. Version 1 manifests, written before entries carried a checksum, are
+ * still read.
+ */
+final class ArtifactManifest {
+    private static final int MAGIC = 0x415A414D; // "AZAM"
+    private static final int VERSION = 2;
+    /** Version before entries carried a checksum, still read. */
+    private static final int VERSION_WITHOUT_MD5 = 1;
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    int size() {
+        return entries.size();
+    }
+
+    @CheckForNull
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * Adds or replaces entries, e.g. when a build archives files more than once.
+     */
+    void addAll(Collection<Entry> newEntries) {
+        for (Entry entry : newEntries) {
+            entries.put(entry.path(), entry);
+        }
+    }
+
+    ListingIndex toIndex() {
+        ListingIndex.Builder builder = ListingIndex.builder();
+        for (Entry entry : entries.values()) {
+            builder.add(entry.path(), entry.length(), entry.lastModified(), entry.md5Bytes());
+        }
+        return builder.build();
+    }
+
+    void write(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        DataOutputStream data = new DataOutputStream(gzip);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(entries.size());
+        for (Entry entry : entries.values()) {
+            data.writeUTF(entry.path());
+            data.writeLong(entry.length());
+            data.writeLong(entry.lastModified());
+            data.writeUTF(entry.contentType() == null ? "" : entry.contentType());
+            data.writeUTF(entry.md5() == null ? "" : entry.md5());
+        }
+        data.flush();
+        gzip.finish();
+    }
+
+    static ArtifactManifest read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new GZIPInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an artifact manifest");
+        }
+        int version = data.readInt();
+        if (version != VERSION && version != VERSION_WITHOUT_MD5) {
+            throw new IOException("Unsupported artifact manifest version " + version);
+        }
+        ArtifactManifest manifest = new ArtifactManifest();
+        int count = data.readInt();
+        for (int i = 0; i < count; i++) {
+            String path = data.readUTF();
+            long length = data.readLong();
+            long lastModified = data.readLong();
+            String contentType = data.readUTF();
+            String md5 = version == VERSION_WITHOUT_MD5 ? "" : data.readUTF();
+            manifest.entries.put(path, new Entry(path, length, lastModified,
+                    contentType.isEmpty() ? null : contentType, md5.isEmpty() ? null : md5));
+        }
+        return manifest;
+    }
+
+    /**
+     * One archived file.
+     *
+     * @param path path relative to the artifacts root, as passed to {@link AzureArtifactManager#archive}
+     * @param length size in bytes
+     * @param lastModified last modification time of the blob in milliseconds since the epoch
+     * @param contentType content type the blob was uploaded with, if any
+     * @param md5 Base64 of the MD5 of the content, if known
+     */
+    record Entry(String path, long length, long lastModified, @CheckForNull String contentType,
+                 @CheckForNull String md5) implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        Entry(String path, long length, long lastModified, @CheckForNull String contentType) {
+            this(path, length, lastModified, contentType, null);
+        }
+
+        @CheckForNull
+        static String base64(@CheckForNull byte[] md5) {
+            return md5 == null ? null : Base64.getEncoder().encodeToString(md5);
+        }
+
+        @CheckForNull
+        byte[] md5Bytes() {
+            return md5 == null ? null : Base64.getDecoder().decode(md5);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.Result;
+import hudson.model.Run;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Blob index tags describing which build wrote a blob, so that blobs can be found across builds with the Find
+ * Blobs by Tags API rather than by listing prefixes.
+ * <p>
+ * Tag values may only contain letters, digits, spaces and {@code + - . / : = _}, so other characters are replaced
+ * by {@code _}, both when tagging and when querying. Values are compared as strings, so build numbers are padded
+ * and timestamps use an ISO format to make range conditions meaningful.
+ */
+final class ArtifactTags {
+    static final String JOB = "jenkins_job";
+    static final String BUILD = "jenkins_build";
+    static final String KIND = "jenkins_kind";
+    static final String NAME = "jenkins_name";
+    static final String CREATED = "jenkins_created";
+    static final String RESULT = "jenkins_result";
+
+    static final String KIND_ARTIFACT = "artifact";
+    static final String KIND_STASH = "stash";
+    static final String KIND_MANIFEST = "manifest";
+
+    private static final int MAX_VALUE_LENGTH = 256;
+    private static final String BUILD_NUMBER_FORMAT = "%010d";
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * @param name file or stash name, or {@code null} for none
+     */
+    static Map<String, String> of(Run<?, ?> build, String kind, @CheckForNull String name) {
+        Map<String, String> tags = new HashMap<>();
+        tags.put(JOB, sanitize(build.getParent().getFullName()));
+        tags.put(BUILD, buildNumber(build.getNumber()));
+        tags.put(KIND, kind);
+        tags.put(CREATED, timestamp(Instant.now()));
+        if (name != null) {
+            tags.put(NAME, sanitize(name.substring(name.lastIndexOf('/') + 1)));
+        }
+        Result result = build.getResult();
+        if (result != null && !build.isBuilding()) {
+            tags.put(RESULT, result.toString());
+        }
+        return tags;
+    }
+
+    static String sanitize(String value) {
+        StringBuilder sanitized = new StringBuilder(Math.min(value.length(), MAX_VALUE_LENGTH));
+        for (int i = 0; i < value.length() && sanitized.length() < MAX_VALUE_LENGTH; i++) {
+            char c = value.charAt(i);
+            boolean allowed = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || " +-./:=_".indexOf(c) >= 0;
+            sanitized.append(allowed ? c : '_');
+        }
+        return sanitized.toString();
+    }
+
+    static String buildNumber(int number) {
+        return String.format(BUILD_NUMBER_FORMAT, number);
+    }
+
+    static String timestamp(Instant instant) {
+        return TIMESTAMP.format(instant.truncatedTo(ChronoUnit.SECONDS));
+    }
+
+    /**
+     * Conditions of a Find Blobs by Tags query, joined by {@code AND}.
+     */
+    static final class Query {
+        private final List<String> conditions = new ArrayList<>();
+
+        Query container(String container) {
+            conditions.add("@container = " + literal(container));
+            return this;
+        }
+
+        Query equal(String tag, String value) {
+            return condition(tag, "=", value);
+        }
+
+        Query condition(String tag, String operator, String value) {
+            conditions.add("\"" + tag + "\" " + operator + " " + literal(value));
+            return this;
+        }
+
+        boolean isEmpty() {
+            return conditions.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.join(" AND ", conditions);
+        }
+
+        private static String literal(String value) {
+            return "'" + value.replace("'", "''") + "'";
+        }
+    }
+
+    private ArtifactTags() {
+    }
+}
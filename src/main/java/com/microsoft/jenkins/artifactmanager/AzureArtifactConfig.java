@@ -9,12 +9,15 @@ import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.microsoftopentechnologies.windowsazurestorage.helper.AzureStorageAccount;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.ExtensionList;
+import hudson.Util;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.model.Item;
+import hudson.model.Node;
 import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
@@ -28,7 +31,12 @@ import org.kohsuke.stapler.StaplerRequest2;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 @Extension
 public class AzureArtifactConfig extends AbstractDescribableImpl<AzureArtifactConfig> implements Serializable {
@@ -38,6 +46,17 @@ public class AzureArtifactConfig extends AbstractDescribableImpl<AzureArtifactCo
     private String container;
     private String prefix;
     private boolean disableExternalUrl;
+    private boolean readFromSecondary;
+    private boolean indexTags;
+    private boolean asyncArchive;
+    private String orphanCleanup;
+    private String initialTier;
+    private int coolAfterDays;
+    private int coldAfterDays;
+    private int archiveAfterDays;
+    private List<AzureArtifactShard> shards;
+
+    private transient volatile ConsistentHashRing<AzureArtifactShard> placement;
 
     public AzureArtifactConfig() {
     }
@@ -54,6 +73,7 @@ public class AzureArtifactConfig extends AbstractDescribableImpl<AzureArtifactCo
     @DataBoundSetter
     public void setContainer(String container) {
         this.container = container;
+        this.placement = null;
     }
 
     public String getPrefix() {
@@ -74,10 +94,204 @@ public class AzureArtifactConfig extends AbstractDescribableImpl<AzureArtifactCo
         this.disableExternalUrl = disableExternalUrl;
     }
 
+    /**
+     * Whether reads of finished builds and stashes prefer the read-only secondary endpoint of RA-GRS accounts.
+     */
+    public boolean getReadFromSecondary() {
+        return readFromSecondary;
+    }
+
+    @DataBoundSetter
+    public void setReadFromSecondary(boolean readFromSecondary) {
+        this.readFromSecondary = readFromSecondary;
+    }
+
+    /**
+     * Whether artifacts, stashes and manifests are written with {@link ArtifactTags blob index tags}.
+     */
+    public boolean getIndexTags() {
+        return indexTags;
+    }
+
+    @DataBoundSetter
+    public void setIndexTags(boolean indexTags) {
+        this.indexTags = indexTags;
+    }
+
+    /**
+     * Whether {@link AzureArtifactManager#archive} of Pipelines returns once the upload has been started on the
+     * agent, leaving the build to wait for it when it releases the agent.
+     */
+    public boolean getAsyncArchive() {
+        return asyncArchive;
+    }
+
+    @DataBoundSetter
+    public void setAsyncArchive(boolean asyncArchive) {
+        this.asyncArchive = asyncArchive;
+    }
+
+    /**
+     * What {@link AzureArtifactGarbageCollector} does with blobs of builds which no longer exist.
+     *
+     * @return {@link AzureArtifactGarbageCollector#REPORT}, {@link AzureArtifactGarbageCollector#DELETE}, or
+     *     {@code null} to not look for them
+     */
+    @CheckForNull
+    public String getOrphanCleanup() {
+        return orphanCleanup;
+    }
+
+    @DataBoundSetter
+    public void setOrphanCleanup(String orphanCleanup) {
+        this.orphanCleanup = Util.fixEmptyAndTrim(orphanCleanup);
+    }
+
+    /**
+     * Access tier artifacts are uploaded to, or {@code null} for the default tier of the account.
+     */
+    @CheckForNull
+    public String getInitialTier() {
+        return initialTier;
+    }
+
+    @DataBoundSetter
+    public void setInitialTier(String initialTier) {
+        this.initialTier = Util.fixEmptyAndTrim(initialTier);
+    }
+
+    public int getCoolAfterDays() {
+        return coolAfterDays;
+    }
+
+    @DataBoundSetter
+    public void setCoolAfterDays(int coolAfterDays) {
+        this.coolAfterDays = Math.max(0, coolAfterDays);
+    }
+
+    public int getColdAfterDays() {
+        return coldAfterDays;
+    }
+
+    @DataBoundSetter
+    public void setColdAfterDays(int coldAfterDays) {
+        this.coldAfterDays = Math.max(0, coldAfterDays);
+    }
+
+    public int getArchiveAfterDays() {
+        return archiveAfterDays;
+    }
+
+    @DataBoundSetter
+    public void setArchiveAfterDays(int archiveAfterDays) {
+        this.archiveAfterDays = Math.max(0, archiveAfterDays);
+    }
+
+    boolean isTieringEnabled() {
+        return coolAfterDays > 0 || coldAfterDays > 0 || archiveAfterDays > 0;
+    }
+
+    /**
+     * @return the smallest age at which {@link #tierFor} moves a build, if {@link #isTieringEnabled}
+     */
+    int getMinTieringAgeDays() {
+        return IntStream.of(coolAfterDays, coldAfterDays, archiveAfterDays).filter(days -> days > 0).min()
+                .orElse(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Chooses the access tier for the artifacts of a build by its age. Builds kept forever never go to the archive
+     * tier, as reading from it takes hours of rehydration.
+     *
+     * @param ageDays days since the build started
+     * @return the tier, or {@code null} if the artifacts should stay in their initial tier
+     */
+    @CheckForNull
+    String tierFor(long ageDays, boolean keepForever) {
+        if (!keepForever && archiveAfterDays > 0 && ageDays >= archiveAfterDays) {
+            return Constants.TIER_ARCHIVE;
+        }
+        if (coldAfterDays > 0 && ageDays >= coldAfterDays) {
+            return Constants.TIER_COLD;
+        }
+        if (coolAfterDays > 0 && ageDays >= coolAfterDays) {
+            return Constants.TIER_COOL;
+        }
+        return null;
+    }
+
     public String getStorageCredentialId() {
         return this.storageCredentialId;
     }
 
+    /**
+     * Additional storage locations; builds are spread over these and the primary {@link #getStorageCredentialId}
+     * and {@link #getContainer} by {@link #placementFor}.
+     */
+    @NonNull
+    public List<AzureArtifactShard> getShards() {
+        return shards == null ? List.of() : Collections.unmodifiableList(shards);
+    }
+
+    @DataBoundSetter
+    public void setShards(List<AzureArtifactShard> shards) {
+        this.shards = shards == null ? null : new ArrayList<>(shards);
+        this.placement = null;
+    }
+
+    /**
+     * @return the primary location followed by every distinct shard
+     */
+    List<AzureArtifactShard> getLocations() {
+        AzureArtifactShard primary = new AzureArtifactShard(storageCredentialId);
+        primary.setContainer(container);
+        Map<String, AzureArtifactShard> locations = new LinkedHashMap<>();
+        locations.put(primary.getId(), primary);
+        for (AzureArtifactShard shard : getShards()) {
+            locations.putIfAbsent(shard.getId(), shard);
+        }
+        return new ArrayList<>(locations.values());
+    }
+
+    /**
+     * Chooses where the builds of the given job are stored, by consistent hashing of the job name over the primary
+     * location and the {@link #getShards} without a label. The choice is meant to be recorded by each build, so
+     * that adding shards only affects where new builds go.
+     */
+    AzureArtifactShard placementFor(String jobFullName) {
+        AzureArtifactShard primary = new AzureArtifactShard(storageCredentialId);
+        primary.setContainer(container);
+        ConsistentHashRing<AzureArtifactShard> ring = placement;
+        if (ring == null) {
+            Map<String, AzureArtifactShard> nodes = new LinkedHashMap<>();
+            nodes.put(primary.getId(), primary);
+            for (AzureArtifactShard shard : getShards()) {
+                if (shard.getLabel() == null) {
+                    nodes.putIfAbsent(shard.getId(), shard);
+                }
+            }
+            if (nodes.size() == 1) {
+                return primary;
+            }
+            ring = new ConsistentHashRing<>(nodes);
+            placement = ring;
+        }
+        return ring.get(jobFullName);
+    }
+
+    /**
+     * @return the first shard whose label matches the given node, or {@code null} if none does
+     */
+    @CheckForNull
+    AzureArtifactShard affinityFor(@CheckForNull Node node) {
+        for (AzureArtifactShard shard : getShards()) {
+            if (shard.matches(node)) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
     public static AzureArtifactConfig get() {
         return ExtensionList.lookupSingleton(AzureArtifactConfig.class);
     }
@@ -101,15 +315,19 @@ public class AzureArtifactConfig extends AbstractDescribableImpl<AzureArtifactCo
         }
 
         public ListBoxModel doFillStorageCredentialIdItems(@AncestorInPath Item item) {
+            return fillStorageCredentialIdItems(item, get().getStorageCredentialId());
+        }
+
+        static ListBoxModel fillStorageCredentialIdItems(Item item, String currentValue) {
             StandardListBoxModel result = new StandardListBoxModel();
             if (item == null) {
                 if (!Jenkins.get().hasPermission(Jenkins.ADMINISTER)) {
-                    return result.includeCurrentValue(get().getStorageCredentialId());
+                    return result.includeCurrentValue(currentValue);
                 }
             } else {
                 if (!item.hasPermission(Item.EXTENDED_READ)
                         && !item.hasPermission(CredentialsProvider.USE_ITEM)) {
-                    return result.includeCurrentValue(get().getStorageCredentialId());
+                    return result.includeCurrentValue(currentValue);
                 }
             }
             return result
@@ -121,7 +339,7 @@ public class AzureArtifactConfig extends AbstractDescribableImpl<AzureArtifactCo
                             Collections.emptyList(),
                             CredentialsMatchers.instanceOf(
                                     AzureStorageAccount.class))
-                    .includeCurrentValue(get().getStorageCredentialId());
+                    .includeCurrentValue(currentValue);
         }
 
         public FormValidation doCheckContainer(@QueryParameter String container) {
@@ -132,6 +350,32 @@ public class AzureArtifactConfig extends AbstractDescribableImpl<AzureArtifactCo
             return FormValidation.ok();
         }
 
+        public ListBoxModel doFillInitialTierItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add(Messages.AzureArtifactConfig_default_tier(), "");
+            items.add(Constants.TIER_HOT);
+            items.add(Constants.TIER_COOL);
+            items.add(Constants.TIER_COLD);
+            return items;
+        }
+
+        public ListBoxModel doFillOrphanCleanupItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add(Messages.AzureArtifactConfig_orphans_off(), "");
+            items.add(Messages.AzureArtifactConfig_orphans_report(), AzureArtifactGarbageCollector.REPORT);
+            items.add(Messages.AzureArtifactConfig_orphans_delete(), AzureArtifactGarbageCollector.DELETE);
+            return items;
+        }
+
+        /**
+         * Usage of the listing cache shared by all artifact requests since startup, shown on the configuration page.
+         */
+        public String getListingCacheStats() {
+            BlobListingCache<?> cache = AzureBlobVirtualFile.listingCache();
+            return Messages.AzureArtifactConfig_listing_cache_stats(cache.size(), cache.getWeight(),
+                    cache.getMaxWeight(), cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount());
+        }
+
         public FormValidation doCheckPrefix(@QueryParameter String prefix) {
             boolean isValid = Utils.isPrefixValid(prefix);
             if (!isValid) {
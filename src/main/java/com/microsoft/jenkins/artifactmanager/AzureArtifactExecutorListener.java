@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import hudson.Extension;
+import hudson.model.Executor;
+import hudson.model.ExecutorListener;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.util.LogTaskListener;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Waits for artifacts archived in the background when a build releases an executor, e.g. at the end of a
+ * {@code node} block, before another build can change the workspace they are uploaded from.
+ * As artifacts can only be archived from a workspace, this is the last point all of them pass while the build is
+ * still running, so a failed upload fails the build here; its messages are printed when the build completes.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class AzureArtifactExecutorListener implements ExecutorListener {
+    private static final Logger LOGGER = Logger.getLogger(AzureArtifactExecutorListener.class.getName());
+
+    @Override
+    public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+        await(task);
+    }
+
+    @Override
+    public void taskCompletedWithProblems(Executor executor, Queue.Task task, long durationMS, Throwable problems) {
+        await(task);
+    }
+
+    private static void await(Queue.Task task) {
+        if (!(task.getOwnerExecutable() instanceof Run<?, ?> run)
+                || !(run.getArtifactManager() instanceof AzureArtifactManager manager)) {
+            return;
+        }
+        try {
+            manager.awaitUploads(new LogTaskListener(LOGGER, Level.FINE));
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Background upload of " + run + " failed", e);
+            if (run.isBuilding()) {
+                run.setResult(Result.FAILURE);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
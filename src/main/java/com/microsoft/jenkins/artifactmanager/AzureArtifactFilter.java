@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Job;
+import hudson.model.PermalinkProjectAction;
+import hudson.model.Run;
+import hudson.util.PluginServletFilter;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jenkins.model.Jenkins;
+import jenkins.security.ResourceDomainConfiguration;
+import jenkins.util.SystemProperties;
+import jenkins.util.VirtualFile;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves archived artifacts at their usual {@code <build>/artifact/<path>} URLs with support for conditional and
+ * ranged requests, which core's directory browser lacks, so that repeated views and resumed downloads streamed
+ * through the controller, i.e. when external URLs are disabled, cost little bandwidth.
+ * <p>
+ * Only single files and the {@code *zip*} downloads of directories of builds using {@link AzureArtifactManager}
+ * are served here, the latter with {@link AzureBlobVirtualFile#zip}, which downloads the files concurrently.
+ * Directory listings, {@code *view*} pages, zips of glob patterns, files with an external URL, and every artifact
+ * once a resource root URL is configured are left to core. Responses carry the same
+ * {@code Content-Security-Policy} as core's, so that an HTML artifact cannot run scripts in the context of Jenkins.
+ * <p>
+ * Size, modification time and MD5 come from the listing cache or the artifact manifest, so answering a conditional
+ * request usually does not call storage at all. The entity tag is the MD5 stored with the blob, a strong validator
+ * which also lets {@code If-Range} resume downloads, or else derived from size and modification time.
+ */
+@Restricted(NoExternalUse.class)
+public class AzureArtifactFilter implements Filter {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final Duration RETRY_AFTER_OFFLINE = Duration.ofHours(1);
+    private static final String ARTIFACT = "artifact";
+
+    /**
+     * Same property and default as core's directory browser.
+     */
+    private static final String CSP_PROPERTY = "hudson.model.DirectoryBrowserSupport.CSP";
+    private static final String DEFAULT_CSP = "sandbox; default-src 'none'; img-src 'self'; style-src 'self';";
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void register() throws ServletException {
+        PluginServletFilter.addFilter(new AzureArtifactFilter());
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (request instanceof HttpServletRequest req && response instanceof HttpServletResponse rsp
+                && serve(req, rsp)) {
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * @return whether the request was handled, otherwise it is passed on to core
+     */
+    private static boolean serve(HttpServletRequest req, HttpServletResponse rsp) throws IOException {
+        String method = req.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)
+                || !req.getRequestURI().contains("/" + ARTIFACT + "/")
+                || ResourceDomainConfiguration.isResourceDomainConfigured()) {
+            return false;
+        }
+        ArtifactUrl url = ArtifactUrl.parse(req.getRequestURI().substring(req.getContextPath().length()));
+        if (url == null) {
+            return false;
+        }
+        Job<?, ?> job = Jenkins.get().getItemByFullName(url.job(), Job.class);
+        Run<?, ?> run = job == null ? null : resolve(job, url.build());
+        if (run == null || !(run.getArtifactManager() instanceof AzureArtifactManager)
+                || !run.hasPermission(Run.ARTIFACTS)) {
+            return false;
+        }
+        VirtualFile root = run.getArtifactManager().root();
+        VirtualFile file = url.path().isEmpty() ? root : root.child(url.path());
+        if (url.zip()) {
+            if (!"GET".equals(method) || !(file instanceof AzureBlobVirtualFile dir) || !dir.isDirectory()) {
+                return false;
+            }
+            sendZip(rsp, dir);
+            return true;
+        }
+        if (!(file instanceof AzureBlobVirtualFile blob) || blob.toExternalURL() != null) {
+            return false;
+        }
+        AzureBlobVirtualFile.FileStatus status = blob.stat();
+        if (status == null) {
+            return false;
+        }
+        send(req, rsp, blob, status);
+        return true;
+    }
+
+    /**
+     * Zips the whole directory below its own name, like core's directory browser does.
+     */
+    private static void sendZip(HttpServletResponse rsp, AzureBlobVirtualFile dir) throws IOException {
+        rsp.setContentType("application/zip");
+        rsp.setHeader("X-Content-Type-Options", "nosniff");
+        rsp.setHeader("Cache-Control", "private, no-cache");
+        dir.zip(rsp.getOutputStream(), "**", null, true, dir.getName());
+    }
+
+    @CheckForNull
+    private static Run<?, ?> resolve(Job<?, ?> job, String build) {
+        try {
+            return job.getBuildByNumber(Integer.parseInt(build));
+        } catch (NumberFormatException e) {
+            PermalinkProjectAction.Permalink permalink = job.getPermalinks().get(build);
+            return permalink == null ? null : permalink.resolve(job);
+        }
+    }
+
+    private static void send(HttpServletRequest req, HttpServletResponse rsp, AzureBlobVirtualFile file,
+                             AzureBlobVirtualFile.FileStatus status) throws IOException {
+        long length = status.length();
+        long lastModified = status.lastModified();
+        String etag = etag(length, lastModified, status.md5());
+        rsp.setHeader("ETag", etag);
+        rsp.setDateHeader("Last-Modified", lastModified);
+        rsp.setHeader("Accept-Ranges", "bytes");
+        rsp.setHeader("Cache-Control", "private, no-cache");
+        if (notModified(req.getHeader("If-None-Match"), req.getDateHeader("If-Modified-Since"), etag,
+                lastModified)) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        ByteRange range = rangeApplies(req.getHeader("If-Range"), etag)
+                ? parseRange(req.getHeader("Range"), length) : null;
+        if (range == ByteRange.UNSATISFIABLE) {
+            rsp.setHeader("Content-Range", "bytes */" + length);
+            rsp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        InputStream in = null;
+        if (!"HEAD".equals(req.getMethod())) {
+            try {
+                in = open(file, status, range);
+            } catch (AzureBlobVirtualFile.ArtifactOfflineException e) {
+                rsp.setHeader("Retry-After", Long.toString(RETRY_AFTER_OFFLINE.toSeconds()));
+                rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+                return;
+            }
+        }
+        String contentType = Jenkins.get().getServletContext().getMimeType(file.getName());
+        rsp.setContentType(contentType != null ? contentType : "application/octet-stream");
+        rsp.setHeader("X-Content-Type-Options", "nosniff");
+        String csp = SystemProperties.getString(CSP_PROPERTY, DEFAULT_CSP);
+        if (!csp.trim().isEmpty()) {
+            rsp.setHeader("Content-Security-Policy", csp);
+            rsp.setHeader("X-WebKit-CSP", csp);
+            rsp.setHeader("X-Content-Security-Policy", csp);
+        }
+        long count = length;
+        if (range != null) {
+            count = range.end() - range.start() + 1;
+            rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            rsp.setHeader("Content-Range", "bytes " + range.start() + "-" + range.end() + "/" + length);
+        }
+        rsp.setContentLengthLong(count);
+        if (in == null) {
+            return;
+        }
+        try (InputStream content = in) {
+            copy(content, rsp.getOutputStream(), count, range == null);
+        }
+    }
+
+    /**
+     * Opens the file at the start of the range. Small ranges, such as the slices PDF viewers and zip tools ask for,
+     * download just the blocks they cover, while the whole file and large ranges, such as resumed downloads, are
+     * read ahead.
+     */
+    private static InputStream open(AzureBlobVirtualFile file, AzureBlobVirtualFile.FileStatus status,
+                                    @CheckForNull ByteRange range) throws IOException {
+        if (range == null) {
+            return file.open(status);
+        }
+        if (range.end() - range.start() < BlobSeekableByteChannel.BLOCK_SIZE) {
+            return Channels.newInputStream(file.openSeekable(status).position(range.start()));
+        }
+        InputStream in = file.open(status);
+        in.skipNBytes(range.start());
+        return in;
+    }
+
+    /**
+     * Copies {@code count} bytes. When they are the whole content, its end is read before the last bytes are
+     * written, so that a {@link ChecksumInputStream} verifies it while the response can still be broken off rather
+     * than leaving the client with a complete but corrupted file.
+     */
+    static void copy(InputStream in, OutputStream out, long count, boolean whole) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long remaining = count;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                throw new IOException("Unexpected end of stream, " + remaining + " bytes missing");
+            }
+            remaining -= n;
+            if (remaining == 0 && whole && in.read() >= 0) {
+                throw new IOException("Content is longer than " + count + " bytes");
+            }
+            out.write(buffer, 0, n);
+        }
+    }
+
+    /**
+     * Strong entity tag from the MD5 of the content if known, otherwise a weak one from size and modification time.
+     */
+    static String etag(long length, long lastModified, @CheckForNull byte[] md5) {
+        if (md5 != null) {
+            return "\"" + HexFormat.of().formatHex(md5) + "\"";
+        }
+        return "W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * @param ifModifiedSince value of the {@code If-Modified-Since} header, or {@code -1} if absent
+     */
+    static boolean notModified(@CheckForNull String ifNoneMatch, long ifModifiedSince, String etag,
+                               long lastModified) {
+        if (ifNoneMatch != null) {
+            // If-None-Match uses the weak comparison
+            String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || tag.equals(opaque) || tag.equals("W/" + opaque)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // HTTP dates have a resolution of one second
+        return ifModifiedSince >= 0
+                && TimeUnit.MILLISECONDS.toSeconds(lastModified) <= TimeUnit.MILLISECONDS.toSeconds(ifModifiedSince);
+    }
+
+    /**
+     * Whether a {@code Range} header may be honored given the {@code If-Range} header. If-Range requires a strong
+     * comparison, which a weak entity tag or a date never passes, so the whole entity is served then.
+     */
+    static boolean rangeApplies(@CheckForNull String ifRange, String etag) {
+        return ifRange == null || !etag.startsWith("W/") && ifRange.trim().equals(etag);
+    }
+
+    /**
+     * Parses a {@code Range} header with a single byte range.
+     *
+     * @return the requested range, {@link ByteRange#UNSATISFIABLE}, or {@code null} if the whole entity should be
+     *     served, e.g. because there is no header or it asks for several ranges
+     */
+    @CheckForNull
+    static ByteRange parseRange(@CheckForNull String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return ByteRange.UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, length - suffix), length - 1);
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start > end) {
+                return start < length && !last.isEmpty() ? null : ByteRange.UNSATISFIABLE;
+            }
+            return new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Inclusive byte range.
+     */
+    record ByteRange(long start, long end) {
+        static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+    }
+
+    /**
+     * Artifact file addressed by a {@code job/<name>/.../<build>/artifact/<path>} URL, possibly below views, or
+     * directory addressed by the {@code *zip*} link below such a path, which names the zip after it.
+     *
+     * @param job full name of the job
+     * @param build number or permalink of the build
+     * @param path {@code /}-separated path of the file below the artifacts root, {@code ""} for the root itself
+     * @param zip whether the directory at the path is to be downloaded as a zip
+     */
+    record ArtifactUrl(String job, String build, String path, boolean zip) {
+        private static final String ZIP = "*zip*";
+
+        /**
+         * @param path request path below the context path, still URL-encoded
+         * @return the file or directory, or {@code null} if the path does not address a single artifact file or
+         *     the zip of a directory
+         */
+        @CheckForNull
+        static ArtifactUrl parse(String path) {
+            if (path.endsWith("/")) {
+                return null;
+            }
+            String[] segments = path.startsWith("/") ? path.substring(1).split("/") : path.split("/");
+            List<String> job = new ArrayList<>();
+            int i = 0;
+            while (i + 1 < segments.length && (segments[i].equals("job") || segments[i].equals("view"))) {
+                if (segments[i].equals("job")) {
+                    job.add(Util.rawDecode(segments[i + 1]));
+                }
+                i += 2;
+            }
+            if (job.isEmpty() || i + 2 >= segments.length || !segments[i + 1].equals(ARTIFACT)) {
+                return null;
+            }
+            List<String> file = new ArrayList<>();
+            boolean zip = false;
+            for (int j = i + 2; j < segments.length; j++) {
+                String segment = Util.rawDecode(segments[j]);
+                // the name of the zip after *zip* only matters to the browser
+                if (segment.equals(ZIP) && j == segments.length - 2 && !segments[j + 1].isEmpty()) {
+                    zip = true;
+                    break;
+                }
+                // other directory browser pages such as *view*, glob patterns, and anything core would normalize
+                if (segment.isEmpty() || segment.equals(".") || segment.equals("..") || segment.contains("*")
+                        || segment.contains("/")) {
+                    return null;
+                }
+                file.add(segment);
+            }
+            return new ArtifactUrl(String.join("/", job), Util.rawDecode(segments[i]), String.join("/", file), zip);
+        }
+    }
+}
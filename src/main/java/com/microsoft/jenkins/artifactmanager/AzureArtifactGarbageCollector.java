@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.microsoftopentechnologies.windowsazurestorage.beans.StorageAccountInfo;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.ArtifactManagerConfiguration;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds, and optionally deletes, blobs of builds which no longer exist in Jenkins, e.g. because their job was
+ * renamed or moved, or because {@link AzureArtifactManager#delete} failed half way.
+ * <p>
+ * The configured prefix of every location is listed with {@link ParallelBlobLister}, each blob is attributed to the
+ * build whose {@link Constants#BUILD_PREFIX_FORMAT} key it is stored under, and builds that Jenkins does not know
+ * are reported. Deletion is paced so that a large backlog of orphans does not eat into the request rate available
+ * to running builds.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class AzureArtifactGarbageCollector extends AsyncPeriodicWork {
+    static final String REPORT = "report";
+    static final String DELETE = "delete";
+
+    private static final long RECURRENCE_PERIOD = TimeUnit.HOURS.toMillis(
+            SystemProperties.getLong(AzureArtifactGarbageCollector.class.getName() + ".recurrenceHours", 24L));
+    /**
+     * Builds with blobs written more recently are left alone, so that blobs being moved along with a renamed job
+     * are not mistaken for orphans.
+     */
+    private static final long MIN_AGE = TimeUnit.HOURS.toMillis(
+            SystemProperties.getLong(AzureArtifactGarbageCollector.class.getName() + ".minAgeHours", 24L));
+    private static final int DELETES_PER_SECOND = SystemProperties.getInteger(
+            AzureArtifactGarbageCollector.class.getName() + ".deletesPerSecond", 100);
+    private static final Pattern BUILD_KEY = Pattern.compile("^(.+?)/(\\d{1,9})/(?:"
+            + Pattern.quote(Constants.ARTIFACTS_PATH) + "|" + Pattern.quote(Constants.STASHES_PATH) + "|"
+            + Pattern.quote(Constants.MANIFEST_FILE_NAME) + "$)");
+
+    private volatile Stats lastRun;
+
+    public AzureArtifactGarbageCollector() {
+        super("Azure artifact garbage collector");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
+    }
+
+    /**
+     * @return figures of the last completed run, or {@code null} if there has been none since startup
+     */
+    @CheckForNull
+    public Stats getLastRun() {
+        return lastRun;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        if (ArtifactManagerConfiguration.get().getArtifactManagerFactories()
+                .get(AzureArtifactManagerFactory.class) == null) {
+            return;
+        }
+        AzureArtifactConfig config = Utils.getArtifactConfig();
+        String mode = config == null ? null : config.getOrphanCleanup();
+        if (mode == null) {
+            return;
+        }
+        boolean delete = DELETE.equals(mode);
+        long start = System.currentTimeMillis();
+        RateLimiter limiter = new RateLimiter(DELETES_PER_SECOND);
+        Stats total = new Stats(0, 0, 0, 0, 0, 0);
+        for (AzureArtifactShard location : config.getLocations()) {
+            String containerName = location.getContainer();
+            if (containerName == null || Utils.containTokens(containerName)) {
+                // the containers of such locations depend on the job and cannot be enumerated
+                continue;
+            }
+            StorageAccountInfo accountInfo = Utils.getGlobalStorageAccount(location.getStorageCredentialId());
+            BlobContainerClient container = Utils.getBlobContainerReference(accountInfo, containerName, false);
+            total = total.plus(collect(container, config.getPrefix(), delete, limiter, listener));
+        }
+        lastRun = new Stats(total.scannedBlobs(), total.orphanedBuilds(), total.orphanedBlobs(),
+                total.orphanedBytes(), total.deletedBlobs(), System.currentTimeMillis() - start);
+        listener.getLogger().println(Messages.AzureArtifactGarbageCollector_summary(lastRun.scannedBlobs(),
+                lastRun.durationMillis(), lastRun.orphanedBuilds(), lastRun.orphanedBlobs(),
+                lastRun.orphanedBytes(), lastRun.deletedBlobs()));
+    }
+
+    private static Stats collect(BlobContainerClient container, String prefix, boolean delete, RateLimiter limiter,
+                                 TaskListener listener) throws IOException, InterruptedException {
+        Map<BuildKey, Usage> usages = new ConcurrentHashMap<>();
+        int scanned = ParallelBlobLister.forEach(container, prefix, item -> {
+            BuildKey key = BuildKey.parse(item.getName().substring(prefix.length()));
+            if (key != null) {
+                usages.merge(key, Usage.of(item), Usage::plus);
+            }
+        });
+
+        long cutoff = System.currentTimeMillis() - MIN_AGE;
+        List<Map.Entry<BuildKey, Usage>> orphans = new ArrayList<>();
+        long orphanedBlobs = 0;
+        long orphanedBytes = 0;
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            // items are only read once the blobs are listed, so that builds started meanwhile are not missed
+            Owners owners = new Owners(Jenkins.get().allItems(Item.class));
+            for (Map.Entry<BuildKey, Usage> entry : usages.entrySet()) {
+                Usage usage = entry.getValue();
+                if (usage.lastModified() >= cutoff) {
+                    continue;
+                }
+                Owner owner = owners.ownerOf(entry.getKey());
+                if (owner == Owner.AMBIGUOUS) {
+                    listener.getLogger().println(Messages.AzureArtifactGarbageCollector_ambiguous(
+                            entry.getKey().job(), entry.getKey().number(), container.getBlobContainerName()));
+                } else if (owner == Owner.NONE) {
+                    orphans.add(entry);
+                    orphanedBlobs += usage.blobs();
+                    orphanedBytes += usage.bytes();
+                    listener.getLogger().println(Messages.AzureArtifactGarbageCollector_orphan(entry.getKey().job(),
+                            entry.getKey().number(), container.getBlobContainerName(), usage.blobs(), usage.bytes(),
+                            Instant.ofEpochMilli(usage.lastModified())));
+                }
+            }
+        }
+
+        AtomicLong deleted = new AtomicLong();
+        if (delete) {
+            StorageExecutor.forEach(orphans, orphan -> {
+                BuildKey key = orphan.getKey();
+                try {
+                    long count = deleteBuild(container, prefix + key.path(), orphan.getValue(), limiter);
+                    deleted.addAndGet(count);
+                    listener.getLogger().println(Messages.AzureArtifactGarbageCollector_deleted(count, key.job(),
+                            key.number(), container.getBlobContainerName()));
+                } catch (IOException | BlobStorageException e) {
+                    // try again on the next run
+                    listener.error("Failed to delete the blobs of " + key.job() + " #" + key.number() + ": " + e);
+                }
+            });
+        }
+        return new Stats(scanned, orphans.size(), orphanedBlobs, orphanedBytes, deleted.get(), 0);
+    }
+
+    /**
+     * Whether a build key belongs to an existing build, see {@link Owners#ownerOf}.
+     */
+    enum Owner {
+        BUILD, NONE, AMBIGUOUS
+    }
+
+    /**
+     * Items of Jenkins by the path they store builds under, see {@link AzureArtifactManager#jobKey}.
+     * Keys cannot be mapped back to full names, since the slashes of e.g. multibranch branch names are stored
+     * decoded, so the keys of all items are computed instead.
+     */
+    static final class Owners {
+        private final NavigableSet<String> itemKeys = new TreeSet<>();
+        private final Map<String, List<Job<?, ?>>> jobs = new HashMap<>();
+
+        Owners(Iterable<? extends Item> items) {
+            for (Item item : items) {
+                String key = AzureArtifactManager.jobKey(item.getFullName());
+                itemKeys.add(key);
+                if (item instanceof Job<?, ?> job) {
+                    jobs.computeIfAbsent(key, k -> new ArrayList<>()).add(job);
+                }
+            }
+        }
+
+        /**
+         * A build key only belongs to no build if no job is stored under it and no item at all is stored at or
+         * below the path of the build, which guards against a job whose folder path happens to contain a number and
+         * an {@code artifacts} folder being attributed to a shorter job name. Keys shared by several jobs, or by an
+         * item that is not a job, are ambiguous.
+         */
+        Owner ownerOf(BuildKey key) {
+            String build = key.job() + "/" + key.number();
+            String below = itemKeys.ceiling(build + "/");
+            if (itemKeys.contains(build) || below != null && below.startsWith(build + "/")) {
+                return Owner.AMBIGUOUS;
+            }
+            List<Job<?, ?>> candidates = jobs.get(key.job());
+            if (candidates == null) {
+                return itemKeys.contains(key.job()) ? Owner.AMBIGUOUS : Owner.NONE;
+            }
+            if (candidates.size() > 1) {
+                return Owner.AMBIGUOUS;
+            }
+            return candidates.get(0).getBuildByNumber(key.number()) != null ? Owner.BUILD : Owner.NONE;
+        }
+    }
+
+    /**
+     * @param path {@code /}-terminated path of the build
+     * @return the number of deleted blobs
+     */
+    private static long deleteBuild(BlobContainerClient container, String path, Usage usage, RateLimiter limiter)
+            throws IOException, InterruptedException {
+        if (HierarchicalNamespace.isEnabled(container)
+                && HierarchicalNamespace.dfsUrl(container.getBlobContainerUrl()) != null) {
+            limiter.acquire();
+            return HierarchicalNamespace.deleteDirectory(container, path.substring(0, path.length() - 1))
+                    ? usage.blobs() : 0;
+        }
+        long count = 0;
+        // already on the storage pool, so the blobs of one build are deleted sequentially
+        for (BlobItem item : container.listBlobs(HierarchicalNamespace.listOptions(container, path), null)) {
+            if (!HierarchicalNamespace.isDirectoryEntry(item)) {
+                limiter.acquire();
+                container.getBlobClient(item.getName()).delete();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Job and build number a blob is stored under.
+     */
+    record BuildKey(String job, int number) {
+        /**
+         * Parses the name of a blob relative to the configured prefix.
+         * The shortest job name followed by a build number and one of the known build entries wins.
+         *
+         * @return the key, or {@code null} for blobs not stored by {@link AzureArtifactManager}
+         */
+        @CheckForNull
+        static BuildKey parse(String relativeName) {
+            Matcher matcher = BUILD_KEY.matcher(relativeName);
+            if (!matcher.find()) {
+                return null;
+            }
+            return new BuildKey(matcher.group(1), Integer.parseInt(matcher.group(2)));
+        }
+
+        /**
+         * @return the {@code /}-terminated path of the build relative to the configured prefix
+         */
+        String path() {
+            return String.format(Constants.BUILD_PREFIX_FORMAT, job, number) + "/";
+        }
+    }
+
+    private record Usage(long blobs, long bytes, long lastModified) {
+        static Usage of(BlobItem item) {
+            long size = item.getProperties().getContentLength() == null ? 0 : item.getProperties().getContentLength();
+            return new Usage(1, size, item.getProperties().getLastModified().toInstant().toEpochMilli());
+        }
+
+        Usage plus(Usage other) {
+            return new Usage(blobs + other.blobs, bytes + other.bytes, Math.max(lastModified, other.lastModified));
+        }
+    }
+
+    /**
+     * Figures of one run over all locations.
+     */
+    public record Stats(long scannedBlobs, int orphanedBuilds, long orphanedBlobs, long orphanedBytes,
+                        long deletedBlobs, long durationMillis) {
+        Stats plus(Stats other) {
+            return new Stats(scannedBlobs + other.scannedBlobs, orphanedBuilds + other.orphanedBuilds,
+                    orphanedBlobs + other.orphanedBlobs, orphanedBytes + other.orphanedBytes,
+                    deletedBlobs + other.deletedBlobs, durationMillis + other.durationMillis);
+        }
+    }
+
+    /**
+     * Spaces permits evenly, shared by all deleting threads.
+     */
+    private static final class RateLimiter {
+        private final long intervalNanos;
+        private long next = System.nanoTime();
+
+        RateLimiter(int permitsPerSecond) {
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, permitsPerSecond);
+        }
+
+        void acquire() throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(next, now);
+                next = slot + intervalNanos;
+                wait = slot - now;
+            }
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.storage.blob.BlobServiceClient;
+import com.azure.storage.blob.models.TaggedBlobItem;
+import com.microsoftopentechnologies.windowsazurestorage.beans.StorageAccountInfo;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds blobs written by {@link AzureArtifactManager} across builds by their {@link ArtifactTags}.
+ * Each configured storage location is searched with one Find Blobs by Tags query, so the cost grows with the
+ * number of matches rather than with the size of the containers.
+ * <p>
+ * Only blobs written while {@link AzureArtifactConfig#getIndexTags} was enabled are found.
+ */
+public final class AzureArtifactIndex {
+
+    /**
+     * A blob matching a query.
+     *
+     * @param container name of the container
+     * @param name name of the blob
+     * @param tags the tags of the blob which were part of the query
+     */
+    public record Match(String container, String name, Map<String, String> tags) {
+    }
+
+    /**
+     * Finds the archived artifacts of every build of a job, optionally only those with the given file name.
+     */
+    @NonNull
+    public static List<Match> findArtifacts(@NonNull String jobFullName, @CheckForNull String fileName) {
+        ArtifactTags.Query query = new ArtifactTags.Query()
+                .equal(ArtifactTags.JOB, ArtifactTags.sanitize(jobFullName))
+                .equal(ArtifactTags.KIND, ArtifactTags.KIND_ARTIFACT)
+                .condition(ArtifactTags.BUILD, ">=", ArtifactTags.buildNumber(0));
+        if (fileName != null) {
+            query.equal(ArtifactTags.NAME, ArtifactTags.sanitize(fileName));
+        }
+        return find(query);
+    }
+
+    /**
+     * Finds the stashes written longer ago than the given age, e.g. those left behind by builds which were deleted
+     * without clearing their stashes.
+     */
+    @NonNull
+    public static List<Match> findStashesOlderThan(@NonNull Duration age) {
+        return find(new ArtifactTags.Query()
+                .equal(ArtifactTags.KIND, ArtifactTags.KIND_STASH)
+                .condition(ArtifactTags.CREATED, "<", ArtifactTags.timestamp(Instant.now().minus(age)))
+                .condition(ArtifactTags.BUILD, ">=", ArtifactTags.buildNumber(0)));
+    }
+
+    /**
+     * Runs the query against the primary storage location and every shard.
+     * Container names containing variables cannot be enumerated, so their whole account is searched.
+     */
+    static List<Match> find(ArtifactTags.Query conditions) {
+        Set<Match> matches = new LinkedHashSet<>();
+        for (AzureArtifactShard location : Utils.getArtifactConfig().getLocations()) {
+            StorageAccountInfo accountInfo = Utils.getGlobalStorageAccount(location.getStorageCredentialId());
+            BlobServiceClient service = Utils.getCloudStorageAccount(accountInfo);
+            String container = location.getContainer();
+            String query = container == null || Utils.containTokens(container)
+                    ? conditions.toString()
+                    : new ArtifactTags.Query().container(container) + " AND " + conditions;
+            for (TaggedBlobItem item : service.findBlobsByTags(query)) {
+                matches.add(new Match(item.getContainerName(), item.getName(), item.getTags()));
+            }
+        }
+        return new ArrayList<>(matches);
+    }
+
+    private AzureArtifactIndex() {
+    }
+}
@@ -6,30 +6,20 @@
 package com.microsoft.jenkins.artifactmanager;
 
 import com.azure.core.credential.AzureSasCredential;
-import com.azure.core.http.rest.PagedIterable;
-import com.azure.storage.blob.BlobAsyncClient;
+import com.azure.core.util.Context;
 import com.azure.storage.blob.BlobClient;
-import com.azure.storage.blob.BlobContainerAsyncClient;
 import com.azure.storage.blob.BlobContainerClient;
-import com.azure.storage.blob.BlobServiceAsyncClient;
 import com.azure.storage.blob.BlobServiceClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
 import com.azure.storage.blob.BlobUrlParts;
+import com.azure.storage.blob.models.AccessTier;
 import com.azure.storage.blob.models.BlobHttpHeaders;
 import com.azure.storage.blob.models.BlobItem;
-import com.azure.storage.blob.models.ListBlobsOptions;
-import com.azure.storage.blob.options.BlobUploadFromFileOptions;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.options.BlobCopyFromUrlOptions;
 import com.azure.storage.blob.sas.BlobSasPermission;
 import com.azure.storage.blob.sas.BlobServiceSasSignatureValues;
 import com.microsoftopentechnologies.windowsazurestorage.beans.StorageAccountInfo;
-import com.microsoftopentechnologies.windowsazurestorage.exceptions.WAStorageException;
-import com.microsoftopentechnologies.windowsazurestorage.service.DownloadFromContainerService;
-import com.microsoftopentechnologies.windowsazurestorage.service.DownloadService;
-import com.microsoftopentechnologies.windowsazurestorage.service.UploadService;
-import com.microsoftopentechnologies.windowsazurestorage.service.UploadToBlobService;
-import com.microsoftopentechnologies.windowsazurestorage.service.model.DownloadServiceData;
-import com.microsoftopentechnologies.windowsazurestorage.service.model.UploadServiceData;
-import com.microsoftopentechnologies.windowsazurestorage.service.model.UploadType;
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
@@ -37,7 +27,10 @@ import hudson.Functions;
 import hudson.Launcher;
 import hudson.ProxyConfiguration;
 import hudson.Util;
+import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
+import hudson.model.Computer;
+import hudson.model.Node;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.remoting.VirtualChannel;
@@ -48,6 +41,7 @@ import io.jenkins.plugins.azuresdk.HttpClientRetriever;
 import jenkins.MasterToSlaveFileCallable;
 import jenkins.model.ArtifactManager;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import jenkins.util.VirtualFile;
 import org.jenkinsci.plugins.workflow.flow.StashManager;
 import org.kohsuke.accmod.Restricted;
@@ -55,23 +49,38 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serial;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.net.URLConnection;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.concurrent.CompletionException;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -80,18 +89,52 @@ import static com.microsoft.jenkins.artifactmanager.Utils.generateExpiryDate;
 @Restricted(NoExternalUse.class)
 public final class AzureArtifactManager extends ArtifactManager implements StashManager.StashAwareArtifactManager {
     private static final Logger LOGGER = Logger.getLogger(ArtifactManager.class.getName());
+    private static final int NOT_FOUND = 404;
+    /**
+     * Files sent to the agent per remoting call when archiving, so that neither side holds the signed URLs of a
+     * huge archive at once.
+     */
+    private static final int ARCHIVE_BATCH_SIZE = Math.max(1, SystemProperties.getInteger(
+            AzureArtifactManager.class.getName() + ".archiveBatchSize", 1000));
+    private static final int ARCHIVE_BATCHES_IN_FLIGHT = 2;
     private transient Run<?, ?> build;
     private final AzureArtifactConfig config;
     private String actualContainerName;
+    /** Storage location chosen for this build; {@code null} for builds predating sharding. */
+    private String storageCredentialId;
+    private String configuredContainer;
+    /** Whether the location may no longer follow the agent, see {@link #fixLocation}. */
+    private boolean locationFixed;
+    /** Where each stash was written, which may differ from the build's location; absent for older stashes. */
+    private Map<String, StashLocation> stashLocations;
+    /**
+     * Access tier the artifacts were uploaded to or last moved to by {@link AzureArtifactTiering}; {@code null} for
+     * the default tier of the account.
+     */
+    private String accessTier;
+    /** Whether the manifest was discarded after failing to record some artifacts, see {@link #recordManifest}. */
+    private boolean manifestDiscarded;
 
     private transient String defaultKey;
 
+    /** Index of {@link Constants#MANIFEST_FILE_NAME}, loaded on demand once the build has completed. */
+    private transient volatile ListingIndex manifestIndex;
+    private transient volatile boolean manifestLoaded;
+    /**
+     * Uploads started by {@link #archive} in the background that no barrier has waited for yet.
+     */
+    private transient List<PendingUpload> pendingUploads;
+    private transient List<String> uploadFailures;
+
     public AzureArtifactManager(Run<?, ?> build, AzureArtifactConfig config) {
-        String containerName = config.getContainer();
+        AzureArtifactShard shard = config.placementFor(build.getParent().getFullName());
+        String containerName = shard.getContainer();
         String prefix = config.getPrefix();
         checkConfig(containerName, prefix);
 
         this.config = config;
+        this.storageCredentialId = shard.getStorageCredentialId();
+        this.configuredContainer = containerName;
         onLoad(build);
     }
 
@@ -110,18 +153,16 @@ public final class AzureArtifactManager extends ArtifactManager implements Stash
     @Override
     public void onLoad(Run<?, ?> aBuild) {
         this.build = aBuild;
-        this.defaultKey = String.format(Constants.BUILD_PREFIX_FORMAT, aBuild.getParent().getFullName(),
-                aBuild.getNumber()).replace("%2F", "/");
+        this.defaultKey = String.format(Constants.BUILD_PREFIX_FORMAT, jobKey(aBuild.getParent().getFullName()),
+                aBuild.getNumber());
+    }
 
-        if (this.actualContainerName == null) {
-            try {
-                EnvVars envVars = build.getEnvironment(new LogTaskListener(LOGGER, Level.INFO));
-                this.actualContainerName = Utils
-                        .replaceMacro(Util.fixNull(config.getContainer()), envVars, Locale.ENGLISH);
-            } catch (IOException | InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
+    /**
+     * @return the path below the configured prefix where the builds of the job with the given full name are stored,
+     *     with the encoded slashes of e.g. multibranch branch names turned into real ones
+     */
+    static String jobKey(String fullName) {
+        return fullName.replace("%2F", "/");
     }
 
     @Override
@@ -130,47 +171,439 @@ public final class AzureArtifactManager extends ArtifactManager implements Stash
         if (artifacts.isEmpty()) {
             return;
         }
-        LOGGER.fine(Messages.AzureArtifactManager_archive(workspace, artifacts));
+        LOGGER.fine(() -> Messages.AzureArtifactManager_archive(workspace, artifacts.size()));
+        fixLocation(workspace);
 
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
+        String containerName = persistLocation(listener);
 
-        List<UploadObject> objects = new ArrayList<>();
+        StorageAccountInfo accountInfo = getStorageAccount();
+        // other builds than Pipelines archive from a publisher at their very end, with nothing left to overlap the
+        // upload with, and only release their executor once they have completed, too late to fail them
+        boolean background = config.getAsyncArchive() && !(build instanceof AbstractBuild);
+        Deque<PendingUpload> inFlight = new ArrayDeque<>();
+        List<ArtifactManifest.Entry> uploaded = new ArrayList<>();
+        try {
+            BlobContainerClient container = Utils.getBlobContainerReference(accountInfo, containerName, true);
+            AccountThrottle throttle = AccountThrottle.forEndpoint(accountInfo.getBlobEndPointURL());
+            boolean tagging = isTagging(container);
+
+            List<UploadObject> objects = new ArrayList<>();
+            Iterator<String> paths = artifacts.keySet().iterator();
+            while (paths.hasNext()) {
+                String relPath = paths.next();
+                BlobClient blobClient = container.getBlobClient(getBlobPath("artifacts/" + relPath));
+                String blobUrl = blobClient.getBlobUrl() + "?" + generateSas(blobClient, tagging);
+                objects.add(new UploadObject(relPath, blobUrl,
+                        tagging ? ArtifactTags.of(build, ArtifactTags.KIND_ARTIFACT, relPath) : null));
+                if (objects.size() < ARCHIVE_BATCH_SIZE && paths.hasNext()) {
+                    continue;
+                }
 
-        Map<String, String> contentTypes = workspace
-                .act(new ContentTypeGuesser(new ArrayList<>(artifacts.keySet()), listener));
+                UploadToBlobStorage upload = new UploadToBlobStorage(
+                        Jenkins.get().getProxy(),
+                        accountInfo.getBlobEndPointURL(),
+                        objects,
+                        config.getInitialTier(),
+                        throttle.beginAgentUpload(),
+                        listener
+                );
+                Future<UploadResult> future;
+                try {
+                    future = workspace.actAsync(upload);
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    throttle.endAgentUpload(0);
+                    throw e;
+                }
+                inFlight.add(new PendingUpload(future, container, throttle, objects.size()));
+                objects = new ArrayList<>();
+                // sign the next batch while this one uploads, but keep the number of batches held in memory bounded
+                if (inFlight.size() > ARCHIVE_BATCHES_IN_FLIGHT) {
+                    uploaded.addAll(finishUpload(inFlight.remove(), listener, background));
+                }
+            }
 
+            if (background) {
+                synchronized (this) {
+                    if (pendingUploads == null) {
+                        pendingUploads = new ArrayList<>();
+                    }
+                    pendingUploads.addAll(inFlight);
+                }
+                inFlight.clear();
+                listener.getLogger().println(Messages.AzureArtifactManager_archive_background(artifacts.size()));
+            }
+            while (!inFlight.isEmpty()) {
+                uploaded.addAll(finishUpload(inFlight.remove(), listener, false));
+            }
+            if (!uploaded.isEmpty()) {
+                recordManifest(container, uploaded);
+            }
+        } catch (Exception e) {
+            for (PendingUpload upload : inFlight) {
+                upload.future().cancel(true);
+                upload.throttle().endAgentUpload(0);
+            }
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Waits for one batch of artifacts to be uploaded.
+     *
+     * @param background whether a failure is to be remembered and reported by {@link #awaitUploads} rather than
+     *     thrown
+     * @return the uploaded files
+     */
+    private List<ArtifactManifest.Entry> finishUpload(PendingUpload upload, TaskListener listener,
+                                                      boolean background) throws IOException, InterruptedException {
+        UploadResult result;
         try {
-            BlobContainerClient container = Utils.getBlobContainerReference(
-                    accountInfo,
-                    this.actualContainerName,
-                    true
-            );
+            result = upload.future().get();
+        } catch (ExecutionException e) {
+            upload.throttle().endAgentUpload(0);
+            if (!background) {
+                throw new IOException(e.getCause());
+            }
+            failUpload(listener, Messages.AzureArtifactManager_archive_background_fail(upload.count(),
+                    e.getCause()));
+            return List.of();
+        }
+        upload.throttle().endAgentUpload(result.throttled());
+        int missing = upload.count() - result.uploaded().size();
+        if (background && missing > 0) {
+            failUpload(listener, Messages.AzureArtifactManager_archive_background_incomplete(missing,
+                    upload.count()));
+        }
+        return result.uploaded();
+    }
 
-            for (Map.Entry<String, String> entry : contentTypes.entrySet()) {
-                String path = "artifacts/" + entry.getKey();
-                String blobPath = getBlobPath(path);
+    /**
+     * Waits for the uploads started in the background by {@link #archive}, recording what they uploaded in the
+     * manifest. Failures are remembered, so that every later call, in particular the one made when the build
+     * completes, reports them again.
+     *
+     * @throws AbortException if any background upload of this build has failed
+     */
+    void awaitUploads(TaskListener listener) throws IOException, InterruptedException {
+        List<PendingUpload> pending;
+        synchronized (this) {
+            pending = pendingUploads;
+            pendingUploads = null;
+        }
+        if (pending != null) {
+            List<ArtifactManifest.Entry> uploaded = new ArrayList<>();
+            try {
+                for (int i = 0; i < pending.size(); i++) {
+                    try {
+                        uploaded.addAll(finishUpload(pending.get(i), listener, true));
+                    } catch (InterruptedException e) {
+                        // leave the uploads not waited for to the next barrier
+                        synchronized (this) {
+                            List<PendingUpload> remaining = new ArrayList<>(pending.subList(i, pending.size()));
+                            if (pendingUploads != null) {
+                                remaining.addAll(pendingUploads);
+                            }
+                            pendingUploads = remaining;
+                        }
+                        throw e;
+                    }
+                }
+            } finally {
+                if (!uploaded.isEmpty()) {
+                    recordManifest(pending.get(0).container(), uploaded);
+                }
+            }
+        }
+        synchronized (this) {
+            if (uploadFailures != null) {
+                throw new AbortException(String.join("\n", uploadFailures));
+            }
+        }
+    }
 
-                BlobClient blobClient = container.getBlobClient(blobPath);
-                String sas = generateSas(blobClient);
-                String blobUrl = blobClient.getBlobUrl() + "?" + sas;
+    private synchronized void failUpload(TaskListener listener, String message) {
+        listener.error(message);
+        if (uploadFailures == null) {
+            uploadFailures = new ArrayList<>();
+        }
+        uploadFailures.add(message);
+    }
 
-                UploadObject uploadObject = new UploadObject(entry.getKey(), blobUrl, entry.getValue());
-                objects.add(uploadObject);
+    /**
+     * Merges the uploaded files into the manifest of this build, kept both in the build directory and next to
+     * the artifacts in the container.
+     * If that fails the manifest is discarded for good, so that browsing falls back to listing the container
+     * rather than to a manifest started over by a later call, which would miss the earlier artifacts.
+     */
+    private synchronized void recordManifest(BlobContainerClient container,
+                                             Collection<ArtifactManifest.Entry> uploaded) {
+        if (manifestDiscarded) {
+            return;
+        }
+        try {
+            ArtifactManifest manifest = readManifest(container);
+            if (manifest == null) {
+                manifest = new ArtifactManifest();
             }
+            manifest.addAll(uploaded);
+            writeManifest(container, manifest);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to record artifact manifest of " + build, e);
+            discardManifest(container);
+        }
+    }
 
-            workspace.act(new UploadToBlobStorage(
-                    Jenkins.get().getProxy(),
-                    accountInfo.getBlobEndPointURL(),
-                    objects,
-                    listener
-            ));
-        } catch (Exception e) {
-            throw new IOException(e);
+    private synchronized void discardManifest(BlobContainerClient container) {
+        manifestDiscarded = true;
+        manifestIndex = null;
+        manifestLoaded = true;
+        try {
+            build.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save discarded artifact manifest of " + build, e);
+        }
+        try {
+            Files.deleteIfExists(getLocalManifest().toPath());
+            container.getBlobClient(getVirtualPath(Constants.MANIFEST_FILE_NAME)).deleteIfExists();
+        } catch (IOException | RuntimeException x) {
+            LOGGER.log(Level.WARNING, "Failed to discard artifact manifest of " + build, x);
+        }
+    }
+
+    private File getLocalManifest() {
+        return new File(build.getRootDir(), Constants.MANIFEST_FILE_NAME);
+    }
+
+    @CheckForNull
+    private ArtifactManifest readManifest(BlobContainerClient container) throws IOException {
+        File local = getLocalManifest();
+        if (local.isFile()) {
+            try (InputStream in = Files.newInputStream(local.toPath())) {
+                return ArtifactManifest.read(in);
+            }
+        }
+        try (InputStream in = container.getBlobClient(getVirtualPath(Constants.MANIFEST_FILE_NAME))
+                .openInputStream()) {
+            return ArtifactManifest.read(in);
+        } catch (BlobStorageException e) {
+            if (e.getStatusCode() == NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private void writeManifest(BlobContainerClient container, ArtifactManifest manifest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        manifest.write(bytes);
+        byte[] data = bytes.toByteArray();
+
+        Path local = getLocalManifest().toPath();
+        Path temp = Files.createTempFile(local.getParent(), Constants.MANIFEST_FILE_NAME, ".tmp");
+        Files.write(temp, data);
+        Files.move(temp, local, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        container.getBlobClient(getVirtualPath(Constants.MANIFEST_FILE_NAME))
+                .upload(new ByteArrayInputStream(data), data.length, true);
+        tag(container, getVirtualPath(Constants.MANIFEST_FILE_NAME), ArtifactTags.KIND_MANIFEST, null);
+        manifestLoaded = false;
+    }
+
+    /**
+     * Whether blobs written to the container get {@link ArtifactTags}; accounts with a hierarchical namespace do
+     * not support blob index tags.
+     */
+    private boolean isTagging(BlobContainerClient container) {
+        return config.getIndexTags() && !HierarchicalNamespace.isEnabled(container);
+    }
+
+    /**
+     * Sets the {@link ArtifactTags} of a blob written without them. Tags only serve queries, so failures are
+     * logged rather than failing the build.
+     */
+    private void tag(BlobContainerClient container, String blobName, String kind, @CheckForNull String name) {
+        if (!isTagging(container)) {
+            return;
+        }
+        try {
+            container.getBlobClient(blobName).setTags(ArtifactTags.of(build, kind, name));
+        } catch (BlobStorageException e) {
+            if (e.getStatusCode() != NOT_FOUND) {
+                LOGGER.log(Level.WARNING, "Failed to tag " + blobName, e);
+            }
+        }
+    }
+
+    /**
+     * Tags the manifest with the result of the build once it has completed.
+     */
+    void tagCompleted() throws IOException, InterruptedException {
+        if (!config.getIndexTags()) {
+            return;
+        }
+        tag(getContainer(), getVirtualPath(Constants.MANIFEST_FILE_NAME), ArtifactTags.KIND_MANIFEST, null);
+    }
+
+    /**
+     * @return the {@code /}-terminated key below which the artifacts of this build are stored
+     */
+    String getArtifactsRoot() {
+        return getVirtualPath(Constants.ARTIFACTS_PATH);
+    }
+
+    String getActualContainerName() {
+        return resolveContainerName();
+    }
+
+    /**
+     * @return credentials of the storage account holding this build's data, or {@code null} for the configured
+     *     default
+     */
+    @CheckForNull
+    String getStorageCredentialId() {
+        return storageCredentialId;
+    }
+
+    private StorageAccountInfo getStorageAccount() {
+        return Utils.getStorageAccount(build.getParent(), storageCredentialId);
+    }
+
+    /**
+     * Moves this build to the shard labelled for the agent it first archives from, if any.
+     * Once anything has been archived the location stays fixed, so the build keeps reading from where its
+     * artifacts actually are.
+     */
+    private synchronized void fixLocation(FilePath workspace) {
+        if (locationFixed) {
+            return;
+        }
+        locationFixed = true;
+        if (getLocalManifest().exists()) {
+            return;
+        }
+        AzureArtifactShard shard = config.affinityFor(nodeOf(workspace));
+        if (shard != null) {
+            LOGGER.log(Level.FINE, "Storing artifacts of {0} in {1} near {2}",
+                    new Object[] {build, shard.getId(), shard.getLabel()});
+            this.storageCredentialId = shard.getStorageCredentialId();
+            this.configuredContainer = shard.getContainer();
+            this.actualContainerName = null;
         }
     }
 
-    private String generateSas(BlobClient blobClient) {
-        BlobSasPermission permissions = new BlobSasPermission().setWritePermission(true);
+    /**
+     * Keeps this build at its current location regardless of the agent it later archives from.
+     *
+     * @return whether the location was not fixed before
+     */
+    private synchronized boolean fixLocation() {
+        boolean fixed = !locationFixed;
+        locationFixed = true;
+        return fixed;
+    }
+
+    /**
+     * Reverts {@link #fixLocation()} when nothing was written after all.
+     */
+    private synchronized void unfixLocation() {
+        locationFixed = false;
+    }
+
+    @CheckForNull
+    private static Node nodeOf(FilePath workspace) {
+        Computer computer = workspace.toComputer();
+        return computer == null ? null : computer.getNode();
+    }
+
+    /**
+     * Chooses where to write a stash: the shard labelled for the agent if there is one, otherwise the build's own
+     * location.
+     */
+    private StashLocation stashLocationFor(FilePath workspace, EnvVars env, TaskListener listener)
+            throws IOException, InterruptedException {
+        AzureArtifactShard shard = config.affinityFor(nodeOf(workspace));
+        if (shard != null) {
+            return new StashLocation(shard.getStorageCredentialId(),
+                    Utils.replaceMacro(Util.fixNull(shard.getContainer()), env, Locale.ENGLISH));
+        }
+        return new StashLocation(storageCredentialId, getActualContainerName(listener));
+    }
+
+    private synchronized StashLocation getStashLocation(String name, TaskListener listener)
+            throws IOException, InterruptedException {
+        StashLocation location = stashLocations == null ? null : stashLocations.get(name);
+        return location != null ? location : new StashLocation(storageCredentialId, getActualContainerName(listener));
+    }
+
+    private synchronized void recordStashLocation(String name, StashLocation location) {
+        if (stashLocations == null) {
+            stashLocations = new HashMap<>();
+        }
+        stashLocations.put(name, location);
+        try {
+            // a resumed pipeline must still find the stash
+            build.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save stash location of " + build, e);
+        }
+    }
+
+    /**
+     * @return the distinct locations stashes of this build may have been written to, including its own
+     */
+    private synchronized Set<StashLocation> getStashLocations(TaskListener listener)
+            throws IOException, InterruptedException {
+        Set<StashLocation> locations = new LinkedHashSet<>();
+        locations.add(new StashLocation(storageCredentialId, getActualContainerName(listener)));
+        if (stashLocations != null) {
+            locations.addAll(stashLocations.values());
+        }
+        return locations;
+    }
+
+    private BlobContainerClient getContainer(StashLocation location) {
+        return Utils.getBlobContainerReference(
+                Utils.getStorageAccount(build.getParent(), location.storageCredentialId),
+                location.container,
+                false
+        );
+    }
+
+    /**
+     * Index of all archived artifacts, relative to {@link #getArtifactsRoot}, as recorded in the manifest.
+     * Only meaningful once the build has completed.
+     *
+     * @return the index, or {@code null} if this build has no manifest, e.g. because it predates them or it was
+     *     discarded
+     */
+    @CheckForNull
+    ListingIndex getManifestIndex() {
+        if (manifestDiscarded) {
+            return null;
+        }
+        if (!manifestLoaded) {
+            synchronized (this) {
+                if (!manifestLoaded) {
+                    try {
+                        ArtifactManifest manifest = readManifest(getContainer());
+                        manifestIndex = manifest == null ? null : manifest.toIndex();
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Failed to read artifact manifest of " + build, e);
+                        manifestIndex = null;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                    manifestLoaded = true;
+                }
+            }
+        }
+        return manifestIndex;
+    }
+
+    private String generateSas(BlobClient blobClient, boolean tagging) {
+        BlobSasPermission permissions = new BlobSasPermission().setWritePermission(true)
+                .setTagsPermission(tagging);
         BlobServiceSasSignatureValues sasSignatureValues =
                 new BlobServiceSasSignatureValues(generateExpiryDate(), permissions);
 
@@ -185,59 +618,58 @@ public final class AzureArtifactManager extends ArtifactManager implements Stash
         return String.format("%s%s/%s", config.getPrefix(), key, path);
     }
 
-    private static class ContentTypeGuesser extends MasterToSlaveFileCallable<Map<String, String>> {
+    /**
+     * Storage account and expanded container name a stash was written to.
+     */
+    private static final class StashLocation implements Serializable {
         @Serial
         private static final long serialVersionUID = 1L;
 
-        private final Collection<String> relPaths;
-        private final TaskListener listener;
+        @CheckForNull
+        private final String storageCredentialId;
+        private final String container;
 
-        ContentTypeGuesser(Collection<String> relPaths, TaskListener listener) {
-            this.relPaths = relPaths;
-            this.listener = listener;
+        StashLocation(@CheckForNull String storageCredentialId, String container) {
+            this.storageCredentialId = storageCredentialId;
+            this.container = container;
         }
 
         @Override
-        public Map<String, String> invoke(File f, VirtualChannel channel) {
-            Map<String, String> contentTypes = new HashMap<>();
-            for (String relPath : relPaths) {
-                File theFile = new File(f, relPath);
-                try {
-                    String contentType = Files.probeContentType(theFile.toPath());
-                    if (contentType == null) {
-                        contentType = URLConnection.guessContentTypeFromName(theFile.getName());
-                    }
-                    contentTypes.put(relPath, contentType);
-                } catch (IOException e) {
-                    Functions.printStackTrace(e, listener
-                            .error("Unable to determine content type for file: " + theFile));
-                }
-            }
-            return contentTypes;
+        public boolean equals(Object o) {
+            return o instanceof StashLocation other
+                    && Objects.equals(storageCredentialId, other.storageCredentialId)
+                    && container.equals(other.container);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(storageCredentialId, container);
         }
     }
 
     private static class UploadObject implements Serializable {
         private final String name;
         private final String url;
-        private final String contentType;
+        @CheckForNull
+        private final HashMap<String, String> tags;
 
         UploadObject(
                 String name,
                 String url,
-                String contentType
+                @CheckForNull Map<String, String> tags
         ) {
             this.name = name;
             this.url = url;
-            this.contentType = contentType;
+            this.tags = tags == null ? null : new HashMap<>(tags);
         }
 
-        public String getName() {
-            return name;
+        @CheckForNull
+        public Map<String, String> getTags() {
+            return tags;
         }
 
-        public String getContentType() {
-            return contentType;
+        public String getName() {
+            return name;
         }
 
         public String getUrl() {
@@ -245,105 +677,115 @@ public final class AzureArtifactManager extends ArtifactManager implements Stash
         }
     }
 
-    private static class UploadToBlobStorage extends MasterToSlaveFileCallable<Void> {
+    private record PendingUpload(Future<UploadResult> future, BlobContainerClient container,
+                                 AccountThrottle throttle, int count) {
+    }
+
+    /**
+     * @param throttled number of throttled responses the agent saw, fed back into the {@link AccountThrottle}
+     */
+    private record UploadResult(List<ArtifactManifest.Entry> uploaded, long throttled) implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class UploadToBlobStorage extends MasterToSlaveFileCallable<UploadResult> {
 
-        public static final int MAX_QUEUE_SIZE_IN_NETTY = 500;
         public static final int TIMEOUT = 600;
         private final ProxyConfiguration proxy;
         private final String blobEndpoint;
         private final List<UploadObject> uploadObjects;
+        @CheckForNull
+        private final String tier;
+        private final int concurrency;
         private final TaskListener listener;
+        private transient AccountThrottle throttle;
 
+        /**
+         * @param concurrency share of the account request budget of the controller this upload may use
+         */
         UploadToBlobStorage(
                 ProxyConfiguration proxy,
                 String blobEndpoint,
                 List<UploadObject> uploadObjects,
+                @CheckForNull String tier,
+                int concurrency,
                 TaskListener listener
         ) {
             this.proxy = proxy;
             this.blobEndpoint = blobEndpoint;
             this.uploadObjects = uploadObjects;
+            this.tier = tier;
+            this.concurrency = concurrency;
             this.listener = listener;
         }
 
-        private BlobServiceAsyncClient getBlobServiceClient(String sas) {
-            return new BlobServiceClientBuilder()
-                    .credential(new AzureSasCredential(sas))
-                    .httpClient(HttpClientRetriever.get(proxy))
-                    .endpoint(blobEndpoint)
-                    .buildAsyncClient();
-        }
-
         private BlobServiceClient getSynchronousBlobServiceClient(String sas) {
             return new BlobServiceClientBuilder()
                     .credential(new AzureSasCredential(sas))
                     .httpClient(HttpClientRetriever.get(proxy))
                     .endpoint(blobEndpoint)
+                    .addPolicy(throttle)
                     .buildClient();
         }
 
         @Override
-        public Void invoke(File f, VirtualChannel channel) {
-            // fall back to sync client when more than 500 files are being uploaded
-            // likely less efficient although not really tested for scale yet.
-            // https://github.com/jenkinsci/azure-artifact-manager-plugin/issues/26
-            if (uploadObjects.size() < MAX_QUEUE_SIZE_IN_NETTY) {
-                CountDownLatch latch = new CountDownLatch(uploadObjects.size());
-                for (UploadObject uploadObject : uploadObjects) {
+        public UploadResult invoke(File f, VirtualChannel channel) throws InterruptedException {
+            // may shrink on throttling, but not grow beyond the share granted by the controller
+            throttle = new AccountThrottle(concurrency, concurrency);
+            List<ArtifactManifest.Entry> uploaded = Collections.synchronizedList(new ArrayList<>());
+            // the MD5 is computed while the file is read for the upload, which the async client cannot do
+            try {
+                StorageExecutor.forEach(uploadObjects, uploadObject -> {
                     BlobUrlParts blobUrlParts = BlobUrlParts.parse(uploadObject.getUrl());
-
-                    BlobAsyncClient blobClient = getBlobClient(blobUrlParts);
-
+                    BlobClient blobClient = getSynchronousBlobClient(blobUrlParts);
                     String file = new File(f, uploadObject.getName()).getAbsolutePath();
-                    BlobUploadFromFileOptions options = new BlobUploadFromFileOptions(file)
-                            .setHeaders(getBlobHttpHeaders(uploadObject));
-                    blobClient.uploadFromFileWithResponse(options)
-                            .doOnError(throwable -> listener.error("[AzureStorage] Failed to upload file %s, error: %s",
-                                    file, throwable.getMessage()))
-                            .doOnSuccess(response -> latch.countDown())
-                            .subscribe();
-                }
-
-                try {
-                    if (!latch.await(Math.max(TIMEOUT, TIMEOUT * uploadObjects.size()), TimeUnit.SECONDS)) {
-                        listener.error("[AzureStorage] Timeout occurred while uploading files");
+                    String contentType = guessContentType(file);
+
+                    try {
+                        ChecksumUpload.Result result = ChecksumUpload.upload(blobClient, new File(file),
+                                new BlobHttpHeaders().setContentType(contentType), uploadObject.getTags(),
+                                tier == null ? null : AccessTier.fromString(tier), Duration.ofSeconds(TIMEOUT));
+                        uploaded.add(toManifestEntry(uploadObject, file, contentType, result));
+                    } catch (IOException | RuntimeException e) {
+                        listener.error("[AzureStorage] Failed to upload file %s, error: %s",
+                            file, e.getMessage());
+                        throw e;
                     }
-                } catch (InterruptedException e) {
-                    listener.error("[AzureStorage] Upload process was interrupted", e);
-                    Thread.currentThread().interrupt();
-                }
-            } else {
-                try {
-                    uploadObjects.parallelStream()
-                        .forEach(uploadObject -> {
-                            BlobUrlParts blobUrlParts = BlobUrlParts.parse(uploadObject.getUrl());
-                            BlobClient blobClient = getSynchronousBlobClient(blobUrlParts);
-                            String file = new File(f, uploadObject.getName()).getAbsolutePath();
-                            BlobUploadFromFileOptions options = new BlobUploadFromFileOptions(file)
-                                    .setHeaders(getBlobHttpHeaders(uploadObject));
-
-                            try {
-                                blobClient.uploadFromFileWithResponse(options, Duration.ofSeconds(TIMEOUT), null);
-                            } catch (Exception e) {
-                                listener.error("[AzureStorage] Failed to upload file %s, error: %s",
-                                    file, e.getMessage());
-                                throw new CompletionException(e);
-                            }
-                        });
-                } catch (CompletionException e) {
-                    listener.error("[AzureStorage] One or more file uploads failed");
-                }
+                });
+            } catch (IOException e) {
+                listener.error("[AzureStorage] One or more file uploads failed");
             }
-            return null;
+            return new UploadResult(new ArrayList<>(uploaded), throttle.getThrottledCount());
         }
 
-        private BlobAsyncClient getBlobClient(BlobUrlParts blobUrlParts) {
-            String sas = blobUrlParts.getCommonSasQueryParameters().encode();
-            BlobServiceAsyncClient blobServiceClient = getBlobServiceClient(sas);
+        /**
+         * Guesses the content type next to the file rather than on the controller, which would need the list of
+         * files to travel both ways.
+         */
+        @CheckForNull
+        private String guessContentType(String file) {
+            File theFile = new File(file);
+            try {
+                String contentType = Files.probeContentType(theFile.toPath());
+                return contentType != null ? contentType : URLConnection.guessContentTypeFromName(theFile.getName());
+            } catch (IOException e) {
+                Functions.printStackTrace(e, listener.error("Unable to determine content type for file: " + theFile));
+                return null;
+            }
+        }
 
-            BlobContainerAsyncClient containerClient = blobServiceClient
-                    .getBlobContainerAsyncClient(blobUrlParts.getBlobContainerName());
-            return containerClient.getBlobAsyncClient(blobUrlParts.getBlobName());
+        private ArtifactManifest.Entry toManifestEntry(UploadObject uploadObject, String file,
+                                                       @CheckForNull String contentType,
+                                                       ChecksumUpload.Result result) {
+            OffsetDateTime lastModified = result.item().getLastModified();
+            return new ArtifactManifest.Entry(
+                    uploadObject.getName(),
+                    new File(file).length(),
+                    lastModified == null ? System.currentTimeMillis() : lastModified.toInstant().toEpochMilli(),
+                    contentType,
+                    ArtifactManifest.Entry.base64(result.md5())
+            );
         }
 
         private BlobClient getSynchronousBlobClient(BlobUrlParts blobUrlParts) {
@@ -354,18 +796,55 @@ public final class AzureArtifactManager extends ArtifactManager implements Stash
                     .getBlobContainerClient(blobUrlParts.getBlobContainerName());
             return containerClient.getBlobClient(blobUrlParts.getBlobName());
         }
+    }
 
-        private BlobHttpHeaders getBlobHttpHeaders(UploadObject uploadObject) {
-            BlobHttpHeaders method = new BlobHttpHeaders();
-            method.setContentType(uploadObject.getContentType());
-            return method;
+    /**
+     * Expands the configured container name on first storage access rather than when the build is loaded, since
+     * computing the environment of a build is expensive. Names without macros need no environment at all.
+     * Only {@link #persistLocation} saves the result with the build.
+     */
+    private synchronized String getActualContainerName(TaskListener listener) throws IOException,
+            InterruptedException {
+        if (this.actualContainerName == null || this.actualContainerName.isEmpty()) {
+            String container = Util.fixNull(configuredContainer != null ? configuredContainer : config.getContainer());
+            Map<String, String> envVars = Utils.containTokens(container) ? build.getEnvironment(listener) : Map.of();
+            this.actualContainerName = Utils.replaceMacro(container, envVars, Locale.ENGLISH);
         }
+        return this.actualContainerName;
     }
 
-    private String getActualContainerName(TaskListener listener) throws IOException, InterruptedException {
-        EnvVars envVars = build.getEnvironment(listener);
-        this.actualContainerName = Utils.replaceMacro(Util.fixNull(config.getContainer()), envVars, Locale.ENGLISH);
-        return this.actualContainerName;
+    /**
+     * Resolves the container name when artifacts are first written and saves it with the build, so that readers
+     * never need the environment of the build, nor save it while serving requests. The tier artifacts are uploaded
+     * to is recorded along with it, so that {@link AzureArtifactTiering} only ever moves them to colder tiers.
+     */
+    private String persistLocation(TaskListener listener) throws IOException, InterruptedException {
+        boolean changed;
+        String name;
+        synchronized (this) {
+            changed = this.actualContainerName == null || this.actualContainerName.isEmpty();
+            name = getActualContainerName(listener);
+            String initialTier = config.getInitialTier();
+            if (accessTier == null && initialTier != null) {
+                accessTier = initialTier;
+                changed = true;
+            }
+        }
+        if (changed) {
+            build.save();
+        }
+        return name;
+    }
+
+    private String resolveContainerName() {
+        try {
+            return getActualContainerName(new LogTaskListener(LOGGER, Level.INFO));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
     }
 
     private String getVirtualPath(String path) {
@@ -382,42 +861,91 @@ public final class AzureArtifactManager extends ArtifactManager implements Stash
         // TODO check if able to delete artifacts
 
         int count = deleteWithPrefix(virtualPath);
+        AzureBlobVirtualFile.invalidateCache(storageCredentialId, getActualContainerName(), virtualPath);
+        // stashes preserved on shards near other agents
+        String stashes = getVirtualPath(Constants.STASHES_PATH);
+        for (StashLocation location : getStashLocations(new LogTaskListener(LOGGER, Level.INFO))) {
+            if (!location.container.equals(getActualContainerName())
+                    || !Objects.equals(location.storageCredentialId, storageCredentialId)) {
+                count += deleteWithPrefix(getContainer(location), stashes);
+            }
+        }
         return count > 0;
     }
 
     private int deleteWithPrefix(String prefix) throws IOException, InterruptedException {
-        BlobContainerClient container = getContainer();
-        ListBlobsOptions listBlobsOptions = new ListBlobsOptions().setPrefix(prefix);
-        PagedIterable<BlobItem> listBlobItems = container.listBlobs(listBlobsOptions, null);
-        return deleteBlobs(container, listBlobItems);
+        return deleteWithPrefix(getContainer(), prefix);
     }
 
-    private int deleteBlobs(BlobContainerClient container, PagedIterable<BlobItem> blobItems) {
-        int count = 0;
-        for (BlobItem blobItem : blobItems) {
-            BlobClient blobClient = container.getBlobClient(blobItem.getName());
-            blobClient.delete();
+    /**
+     * Deletes everything below the {@code /}-terminated prefix: with a single recursive directory delete on
+     * accounts with a hierarchical namespace, otherwise blob by blob.
+     *
+     * @return the number of deleted blobs, or for a directory delete {@code 1} if the directory existed
+     */
+    private int deleteWithPrefix(BlobContainerClient container, String prefix)
+            throws IOException, InterruptedException {
+        if (isHierarchical(container)) {
+            return HierarchicalNamespace.deleteDirectory(container, stripTrailingSlash(prefix)) ? 1 : 0;
         }
-        return count;
+        return ParallelBlobLister.forEach(container, prefix, blobItem -> deleteBlob(container, blobItem));
+    }
+
+    private static boolean isHierarchical(BlobContainerClient container) {
+        return HierarchicalNamespace.isEnabled(container)
+                && HierarchicalNamespace.dfsUrl(container.getBlobContainerUrl()) != null;
+    }
+
+    private static String stripTrailingSlash(String path) {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private void deleteBlob(BlobContainerClient container, BlobItem blobItem) {
+        BlobClient blobClient = container.getBlobClient(blobItem.getName());
+        blobClient.delete();
     }
 
     private BlobContainerClient getContainer() throws IOException,
             InterruptedException {
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
-        if (this.actualContainerName == null || this.actualContainerName.isEmpty()) {
-            this.actualContainerName = getActualContainerName(new LogTaskListener(LOGGER, Level.INFO));
-        }
-
+        StorageAccountInfo accountInfo = getStorageAccount();
         return Utils.getBlobContainerReference(
                 accountInfo,
-                this.actualContainerName,
+                getActualContainerName(new LogTaskListener(LOGGER, Level.INFO)),
                 false
         );
     }
 
+    @CheckForNull
+    String getAccessTier() {
+        return accessTier;
+    }
+
+    /**
+     * Moves all artifacts of this build, but not its manifest, to the given access tier, skipping those already
+     * in it, and records the tier with the build.
+     *
+     * @return the number of moved blobs
+     */
+    int moveArtifactsToTier(String tier) throws IOException, InterruptedException {
+        BlobContainerClient container = getContainer();
+        AccessTier target = AccessTier.fromString(tier);
+        AtomicInteger moved = new AtomicInteger();
+        ParallelBlobLister.forEach(container, getVirtualPath(Constants.ARTIFACTS_PATH), blobItem -> {
+            if (!target.equals(blobItem.getProperties().getAccessTier())) {
+                container.getBlobClient(blobItem.getName()).setAccessTier(target);
+                moved.incrementAndGet();
+            }
+        });
+        synchronized (this) {
+            accessTier = tier;
+        }
+        build.save();
+        return moved.get();
+    }
+
     @Override
     public VirtualFile root() {
-        return new AzureBlobVirtualFile(this.actualContainerName, getVirtualPath("artifacts"),
+        return new AzureBlobVirtualFile(storageCredentialId, resolveContainerName(), getVirtualPath("artifacts"),
             this.config.getDisableExternalUrl(), build);
     }
 
@@ -426,34 +954,47 @@ public final class AzureArtifactManager extends ArtifactManager implements Stash
                       @NonNull EnvVars env, @NonNull TaskListener listener, @CheckForNull String includes,
                       @CheckForNull String excludes, boolean useDefaultExcludes, boolean allowEmpty) throws
             IOException, InterruptedException {
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
+        StashLocation location = stashLocationFor(workspace, env, listener);
+        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent(), location.storageCredentialId);
 
-        UploadServiceData serviceData = new UploadServiceData(build, workspace, launcher, listener, accountInfo);
-        FilePath remoteWorkspace = serviceData.getRemoteWorkspace();
-        FilePath stashTempFile = remoteWorkspace.child(name + Constants.TGZ_FILE_EXTENSION);
+        FilePath stashTempFile = workspace.child(name + Constants.TGZ_FILE_EXTENSION);
         try {
             int count;
-            count = workspace.archive(ArchiverFactory.TARGZ, stashTempFile.write(),
-                    new DirScanner.Glob(Util.fixEmpty(includes) == null ? Constants.DEFAULT_INCLUDE_PATTERN : includes,
-                            excludeFilesAndStash(excludes, stashTempFile.getName()), useDefaultExcludes));
+            try (OutputStream out = stashTempFile.write()) {
+                count = workspace.archive(ArchiverFactory.TARGZ, out,
+                        new DirScanner.Glob(Util.fixEmpty(includes) == null ? Constants.DEFAULT_INCLUDE_PATTERN
+                                : includes, excludeFilesAndStash(excludes, stashTempFile.getName()),
+                                useDefaultExcludes));
+            }
             if (count == 0 && !allowEmpty) {
                 throw new AbortException(Messages.AzureArtifactManager_stash_no_file());
             }
-            listener.getLogger().println(Messages.AzureArtifactManager_stash_files(count, this.actualContainerName));
-
-            serviceData.setVirtualPath(getVirtualPath(Constants.STASHES_PATH));
-            serviceData.setContainerName(getActualContainerName(listener));
-            serviceData.setFilePath(stashTempFile.getName());
-            serviceData.setUploadType(UploadType.INDIVIDUAL);
-
-            // TODO rewrite to not use azure-storage plugin API like in artifacts
-            UploadService uploadService = new UploadToBlobService(serviceData);
+            listener.getLogger().println(Messages.AzureArtifactManager_stash_files(count, location.container));
+
+            // uploaded from the agent like artifacts, with the MD5 computed on the way sent along with the blob
+            BlobContainerClient container = Utils.getBlobContainerReference(accountInfo, location.container, true);
+            String blobName = getVirtualPath(Constants.STASHES_PATH) + name + Constants.TGZ_FILE_EXTENSION;
+            BlobClient blobClient = container.getBlobClient(blobName);
+            boolean tagging = isTagging(container);
+            UploadObject object = new UploadObject(stashTempFile.getName(),
+                    blobClient.getBlobUrl() + "?" + generateSas(blobClient, tagging),
+                    tagging ? ArtifactTags.of(build, ArtifactTags.KIND_STASH, name) : null);
+            AccountThrottle throttle = AccountThrottle.forEndpoint(accountInfo.getBlobEndPointURL());
+            UploadResult result;
             try {
-                uploadService.execute();
-            } catch (WAStorageException e) {
+                result = workspace.act(new UploadToBlobStorage(Jenkins.get().getProxy(),
+                        accountInfo.getBlobEndPointURL(), List.of(object), null, throttle.beginAgentUpload(),
+                        listener));
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                throttle.endAgentUpload(0);
                 listener.getLogger().println(Messages.AzureArtifactManager_stash_fail(e));
-                throw new IOException(e);
+                throw e;
+            }
+            throttle.endAgentUpload(result.throttled());
+            if (result.uploaded().isEmpty()) {
+                throw new AbortException(Messages.AzureArtifactManager_stash_fail(stashTempFile.getName()));
             }
+            recordStashLocation(name, location);
         } finally {
             stashTempFile.delete();
             listener.getLogger().println(Messages.AzureArtifactManager_stash_delete(stashTempFile.getName()));
@@ -468,40 +1009,78 @@ public final class AzureArtifactManager extends ArtifactManager implements Stash
     @Override
     public void unstash(@NonNull String name, @NonNull FilePath workspace, @NonNull Launcher launcher,
                         @NonNull EnvVars env, @NonNull TaskListener listener) throws IOException, InterruptedException {
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
-        DownloadServiceData serviceData = new DownloadServiceData(build, workspace, launcher, listener, accountInfo);
-        serviceData.setContainerName(getActualContainerName(listener));
-        String stashes = getVirtualPath(Constants.STASHES_PATH);
-        serviceData.setIncludeFilesPattern(stashes + name + Constants.TGZ_FILE_EXTENSION);
-        serviceData.setFlattenDirectories(true);
-
+        StashLocation location = getStashLocation(name, listener);
+        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent(), location.storageCredentialId);
         workspace.mkdirs();
-        DownloadService downloadService = new DownloadFromContainerService(serviceData);
+
+        String blobName = getVirtualPath(Constants.STASHES_PATH) + name + Constants.TGZ_FILE_EXTENSION;
+        BlobContainerClient secondary = isReplicated(accountInfo, location.container, blobName)
+                ? Utils.getSecondaryBlobContainerReference(accountInfo, location.container) : null;
+        AzureBlobVirtualFile stash = new AzureBlobVirtualFile(location.storageCredentialId, location.container,
+                blobName, true, build);
+        int count;
         try {
-            downloadService.execute();
-        } catch (WAStorageException e) {
+            // straight to the agent, checked against the recorded MD5 before a corrupt archive is half extracted
+            count = stash.downloadTo(workspace, secondary);
+        } catch (IOException e) {
             listener.getLogger().println(Messages.AzureArtifactManager_unstash_fail(e));
-            throw new IOException(e);
+            throw e;
         }
-
-        FilePath[] stashList = workspace.list(name + Constants.TGZ_FILE_EXTENSION);
-        if (stashList.length == 0) {
+        if (count == 0) {
             throw new AbortException(Messages.AzureArtifactManager_unstash_not_found(name,
-                    this.actualContainerName, getVirtualPath(Constants.STASHES_PATH)));
+                    location.container, getVirtualPath(Constants.STASHES_PATH)));
         }
 
-        FilePath stashFile = stashList[0];
-        workspace.untarFrom(stashFile.read(), FilePath.TarCompression.GZIP);
+        FilePath stashFile = workspace.child(name + Constants.TGZ_FILE_EXTENSION);
+        stashFile.untar(workspace, FilePath.TarCompression.GZIP);
         stashFile.delete();
         listener.getLogger().println(Messages.AzureArtifactManager_unstash_files(stashFile.getName()));
     }
 
+    /**
+     * Checks whether the blob may be read from the secondary endpoint, i.e. reading from it is enabled and the
+     * secondary holds the same version of the blob as the primary. Stashes are typically read shortly after they
+     * were written, or overwritten under the same name, so this costs two properties requests to avoid reading a
+     * stale or missing copy.
+     */
+    private boolean isReplicated(StorageAccountInfo accountInfo, String containerName, String blobName) {
+        if (!Utils.getArtifactConfig().getReadFromSecondary()) {
+            return false;
+        }
+        BlobContainerClient secondary = Utils.getSecondaryBlobContainerReference(accountInfo, containerName);
+        if (secondary == null) {
+            return false;
+        }
+        try {
+            String etag = Utils.getBlobContainerReference(accountInfo, containerName, false)
+                    .getBlobClient(blobName).getProperties().getETag();
+            return etag != null && etag.equals(secondary.getBlobClient(blobName).getProperties().getETag());
+        } catch (BlobStorageException e) {
+            LOGGER.log(Level.FINE, "Not reading " + blobName + " from the secondary endpoint", e);
+            return false;
+        }
+    }
+
     @Override
     public void clearAllStashes(@NonNull TaskListener listener) throws IOException, InterruptedException {
         String virtualPath = getVirtualPath(Constants.STASHES_PATH);
 
-        int count = deleteWithPrefix(virtualPath);
-        listener.getLogger().println(Messages.AzureArtifactManager_clear_stash(count, this.actualContainerName));
+        for (StashLocation location : getStashLocations(listener)) {
+            BlobContainerClient container = getContainer(location);
+            if (isHierarchical(container)) {
+                if (HierarchicalNamespace.deleteDirectory(container, stripTrailingSlash(virtualPath))) {
+                    listener.getLogger().println(Messages.AzureArtifactManager_clear_stash_directory(virtualPath,
+                            location.container));
+                }
+                continue;
+            }
+            int count = ParallelBlobLister.forEach(container, virtualPath,
+                    blobItem -> deleteBlob(container, blobItem));
+            listener.getLogger().println(Messages.AzureArtifactManager_clear_stash(count, location.container));
+        }
+        synchronized (this) {
+            stashLocations = null;
+        }
     }
 
     @Override
@@ -512,9 +1091,28 @@ public final class AzureArtifactManager extends ArtifactManager implements Stash
                     .getName()));
         }
 
+        // the copies must stay where they are written, so the target may no longer follow its agent
+        boolean fixedHere = azureArtifactManager.fixLocation();
         try {
-            int artifactsCount = copyBlobsWithPrefix(Constants.ARTIFACTS_PATH, azureArtifactManager.defaultKey);
-            int stashesCount = copyBlobsWithPrefix(Constants.STASHES_PATH, azureArtifactManager.defaultKey);
+            BlobContainerClient target = azureArtifactManager.getContainer();
+            int artifactsCount = copyBlobsWithPrefix(Constants.ARTIFACTS_PATH, azureArtifactManager, target);
+            int stashesCount = 0;
+            for (StashLocation location : getStashLocations(listener)) {
+                stashesCount += copyBlobsWithPrefix(getContainer(location), Constants.STASHES_PATH,
+                        azureArtifactManager, target);
+            }
+            ArtifactManifest manifest = manifestDiscarded ? null : readManifest(getContainer());
+            if (manifest != null) {
+                azureArtifactManager.recordManifest(target, manifest.entries());
+            } else if (artifactsCount > 0) {
+                // a manifest later started by the target would not list the copied artifacts
+                azureArtifactManager.discardManifest(target);
+            }
+            if (artifactsCount + stashesCount > 0) {
+                to.save();
+            } else if (fixedHere) {
+                azureArtifactManager.unfixLocation();
+            }
             listener.getLogger().println(Messages.AzureArtifactManager_copy_all(artifactsCount, stashesCount,
                     this.defaultKey, azureArtifactManager.defaultKey));
         } catch (InterruptedException e) {
@@ -523,36 +1121,40 @@ public final class AzureArtifactManager extends ArtifactManager implements Stash
         }
     }
 
-    private int copyBlobs(PagedIterable<BlobItem> sourceBlobs, String toKey, BlobContainerClient container) {
-        int count = 0;
-        for (BlobItem sourceBlob : sourceBlobs) {
-            if (Boolean.TRUE.equals(sourceBlob.isPrefix())) {
-                count += copyBlobs(
-                        container.listBlobsByHierarchy(sourceBlob.getName()),
-                        toKey,
-                        container
-                );
-            } else {
-                String destFilePath = sourceBlob.getName().replace(this.defaultKey, toKey);
+    private void copyBlob(BlobItem sourceBlob, AzureArtifactManager targetManager, BlobContainerClient container,
+                          BlobContainerClient target) {
+        String toKey = targetManager.defaultKey;
+        String destFilePath = sourceBlob.getName().replace(this.defaultKey, toKey);
 
-                BlobClient blobClient = container.getBlobClient(sourceBlob.getName());
-                BlobClient destBlob = container.getBlobClient(destFilePath);
+        BlobClient blobClient = container.getBlobClient(sourceBlob.getName());
+        BlobClient destBlob = target.getBlobClient(destFilePath);
 
-                String srcBlobUrl = blobClient.getBlobUrl();
-                String srcBlobSas = blobClient.generateSas(Utils.generateBlobPolicy());
+        String srcBlobUrl = blobClient.getBlobUrl();
+        String srcBlobSas = blobClient.generateSas(Utils.generateBlobPolicy());
 
-                destBlob.copyFromUrl(srcBlobUrl + "?" + srcBlobSas);
-                count++;
-            }
+        BlobCopyFromUrlOptions options = new BlobCopyFromUrlOptions(srcBlobUrl + "?" + srcBlobSas);
+        if (targetManager.isTagging(target)) {
+            String relative = destFilePath.substring(targetManager.getVirtualPath("").length());
+            boolean stash = relative.startsWith(Constants.STASHES_PATH);
+            options.setTags(ArtifactTags.of(targetManager.build,
+                    stash ? ArtifactTags.KIND_STASH : ArtifactTags.KIND_ARTIFACT, relative));
         }
-        return count;
+        destBlob.copyFromUrlWithResponse(options, null, Context.NONE);
     }
 
-    private int copyBlobsWithPrefix(String prefix, String toKey) throws IOException,
-            InterruptedException {
-        BlobContainerClient container = getContainer();
+    /**
+     * Copies blobs server-side, possibly to another storage account if the target build was placed on another
+     * shard.
+     */
+    private int copyBlobsWithPrefix(String prefix, AzureArtifactManager targetManager, BlobContainerClient target)
+            throws IOException, InterruptedException {
+        return copyBlobsWithPrefix(getContainer(), prefix, targetManager, target);
+    }
+
+    private int copyBlobsWithPrefix(BlobContainerClient container, String prefix, AzureArtifactManager targetManager,
+                                    BlobContainerClient target) throws IOException, InterruptedException {
         String sourcePath = getVirtualPath(prefix);
-        PagedIterable<BlobItem> sourceBlobs = container.listBlobsByHierarchy(sourcePath);
-        return copyBlobs(sourceBlobs, toKey, container);
+        return ParallelBlobLister.forEach(container, sourcePath,
+                sourceBlob -> copyBlob(sourceBlob, targetManager, container, target));
     }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.model.Jenkins;
+import org.kohsuke.args4j.Option;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Lists blobs found through {@link AzureArtifactIndex}, one {@code container/blob} per line.
+ */
+@Extension
+public class AzureArtifactQueryCommand extends CLICommand {
+    @Option(name = "-job", usage = "Full name of the job whose artifacts to list")
+    private String job;
+
+    @Option(name = "-artifact", usage = "Only list artifacts with this file name", depends = "-job")
+    private String artifact;
+
+    @Option(name = "-stashes-older-than-days", usage = "List stashes written more than this many days ago",
+            forbids = "-job")
+    private int stashesOlderThanDays = -1;
+
+    @Override
+    public String getShortDescription() {
+        return "Finds artifacts and stashes in Azure storage by their blob index tags.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        List<AzureArtifactIndex.Match> matches;
+        if (stashesOlderThanDays >= 0) {
+            matches = AzureArtifactIndex.findStashesOlderThan(Duration.ofDays(stashesOlderThanDays));
+        } else if (job != null) {
+            matches = AzureArtifactIndex.findArtifacts(job, artifact);
+        } else {
+            stderr.println("Either -job or -stashes-older-than-days is required");
+            return 2;
+        }
+        for (AzureArtifactIndex.Match match : matches) {
+            stdout.println(match.container() + "/" + match.name());
+        }
+        return 0;
+    }
+}
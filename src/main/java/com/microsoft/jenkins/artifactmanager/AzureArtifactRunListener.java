@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finishes the bookkeeping of builds stored by {@link AzureArtifactManager} once they have completed.
+ * Artifacts still being uploaded in the background are waited for first, and failures to upload them are printed;
+ * the build itself was already failed by {@link AzureArtifactExecutorListener} when it released the agent.
+ */
+@Extension
+public class AzureArtifactRunListener extends RunListener<Run<?, ?>> {
+    private static final Logger LOGGER = Logger.getLogger(AzureArtifactRunListener.class.getName());
+
+    @Override
+    public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+        if (!(run.getArtifactManager() instanceof AzureArtifactManager manager)) {
+            return;
+        }
+        try {
+            manager.awaitUploads(listener);
+        } catch (IOException e) {
+            listener.error(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            manager.tagCompleted();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to tag the artifacts of " + run, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Item;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Additional storage account and container among which builds are spread, see
+ * {@link AzureArtifactConfig#getShards()}.
+ */
+public class AzureArtifactShard extends AbstractDescribableImpl<AzureArtifactShard> implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final String storageCredentialId;
+    private String container;
+    private String label;
+
+    @DataBoundConstructor
+    public AzureArtifactShard(String storageCredentialId) {
+        this.storageCredentialId = storageCredentialId;
+    }
+
+    public String getStorageCredentialId() {
+        return storageCredentialId;
+    }
+
+    public String getContainer() {
+        return container;
+    }
+
+    @DataBoundSetter
+    public void setContainer(String container) {
+        this.container = container;
+    }
+
+    /**
+     * Label expression of the agents this location is close to, e.g. in the same region.
+     * Shards with a label only receive data written from matching agents rather than a share of all jobs.
+     */
+    @CheckForNull
+    public String getLabel() {
+        return label;
+    }
+
+    @DataBoundSetter
+    public void setLabel(String label) {
+        this.label = Util.fixEmptyAndTrim(label);
+    }
+
+    boolean matches(@CheckForNull Node node) {
+        if (label == null || node == null) {
+            return false;
+        }
+        Label expression = Jenkins.get().getLabel(label);
+        return expression != null && expression.contains(node);
+    }
+
+    /**
+     * Identifies this shard on the placement ring; it must not change when shards are reordered.
+     */
+    String getId() {
+        return storageCredentialId + "/" + container;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<AzureArtifactShard> {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Storage shard";
+        }
+
+        public ListBoxModel doFillStorageCredentialIdItems(@AncestorInPath Item item,
+                                                           @QueryParameter String storageCredentialId) {
+            return AzureArtifactConfig.DescriptorImpl.fillStorageCredentialIdItems(item, storageCredentialId);
+        }
+
+        public FormValidation doCheckLabel(@QueryParameter String label) {
+            if (Util.fixEmptyAndTrim(label) != null && Jenkins.get().getLabel(label) == null) {
+                return FormValidation.error(Messages.AzureArtifactShard_invalid_label(label));
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckContainer(@QueryParameter String container) {
+            boolean isValid = Utils.containTokens(container) || Utils.validateContainerName(container);
+            if (!isValid) {
+                return FormValidation.error(Messages.AzureArtifactConfig_invalid_container_name(container));
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.ArtifactManagerConfiguration;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Moves the artifacts of aging builds to cheaper access tiers as configured in {@link AzureArtifactConfig}.
+ * <p>
+ * Builds are visited oldest first within each job, and the tier reached is recorded with the build, so a build is
+ * only listed again when it crosses the next age threshold. Each job is resumed from its oldest build which may
+ * still move, so that builds which have reached the coldest tier they ever will are not loaded again, until the
+ * thresholds change or Jenkins restarts.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class AzureArtifactTiering extends AsyncPeriodicWork {
+    private static final long RECURRENCE_PERIOD = TimeUnit.HOURS.toMillis(
+            SystemProperties.getLong(AzureArtifactTiering.class.getName() + ".recurrenceHours", 6L));
+    private static final List<String> TIERS = List.of(Constants.TIER_HOT, Constants.TIER_COOL, Constants.TIER_COLD,
+            Constants.TIER_ARCHIVE);
+
+    /**
+     * Number of the oldest build of each job, by full name, which may still move to a colder tier.
+     */
+    private volatile Map<String, Integer> progress = Map.of();
+    /** Age thresholds {@link #progress} was recorded with. */
+    private volatile List<Integer> progressThresholds = List.of();
+
+    public AzureArtifactTiering() {
+        super("Azure artifact tiering");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        if (ArtifactManagerConfiguration.get().getArtifactManagerFactories()
+                .get(AzureArtifactManagerFactory.class) == null) {
+            return;
+        }
+        AzureArtifactConfig config = Utils.getArtifactConfig();
+        if (config == null || !config.isTieringEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int minAgeDays = config.getMinTieringAgeDays();
+        List<Integer> thresholds = List.of(config.getCoolAfterDays(), config.getColdAfterDays(),
+                config.getArchiveAfterDays());
+        Map<String, Integer> previous = thresholds.equals(progressThresholds) ? progress : Map.of();
+        Map<String, Integer> next = new HashMap<>();
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            for (Job<?, ?> job : Jenkins.get().allItems(Job.class)) {
+                Integer from = previous.get(job.getFullName());
+                Run<?, ?> run = from == null ? job.getFirstBuild() : job.getNearestBuild(from);
+                Integer pending = null;
+                for (; run != null; run = run.getNextBuild()) {
+                    long ageDays = TimeUnit.MILLISECONDS.toDays(now - run.getStartTimeInMillis());
+                    if (ageDays < minAgeDays) {
+                        // later builds are younger
+                        break;
+                    }
+                    String tier = config.tierFor(ageDays, run.isKeepLog());
+                    if (tier != null && !run.isBuilding()
+                            && run.getArtifactManager() instanceof AzureArtifactManager manager
+                            && isColder(tier, manager.getAccessTier())) {
+                        move(manager, run, tier, listener);
+                    }
+                    if (pending == null && !isSettled(config, run)) {
+                        pending = run.getNumber();
+                    }
+                }
+                if (pending == null) {
+                    pending = run != null ? run.getNumber() : job.getNextBuildNumber();
+                }
+                next.put(job.getFullName(), pending);
+            }
+        }
+        progress = next;
+        progressThresholds = thresholds;
+    }
+
+    /**
+     * Whether the artifacts of a build have reached the coldest tier they ever will, or are not in Azure at all.
+     */
+    private static boolean isSettled(AzureArtifactConfig config, Run<?, ?> run) {
+        if (run.isBuilding()) {
+            return false;
+        }
+        if (!(run.getArtifactManager() instanceof AzureArtifactManager manager)) {
+            return true;
+        }
+        String coldest = config.tierFor(Long.MAX_VALUE, run.isKeepLog());
+        return coldest == null || !isColder(coldest, manager.getAccessTier());
+    }
+
+    /**
+     * Artifacts only ever move to colder tiers, e.g. not out of the archive tier when the configuration changes,
+     * which would rehydrate whole builds.
+     */
+    private static boolean isColder(String tier, @CheckForNull String current) {
+        return current == null || TIERS.indexOf(tier) > TIERS.indexOf(current);
+    }
+
+    private static void move(AzureArtifactManager manager, Run<?, ?> run, String tier, TaskListener listener)
+            throws InterruptedException {
+        try {
+            int count = manager.moveArtifactsToTier(tier);
+            listener.getLogger().println(Messages.AzureArtifactTiering_moved(count, run, tier));
+        } catch (IOException | RuntimeException e) {
+            // try again on the next run
+            listener.error("Failed to move the artifacts of " + run + " to the " + tier + " tier: " + e);
+        }
+    }
+}
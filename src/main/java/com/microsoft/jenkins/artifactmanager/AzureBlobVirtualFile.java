@@ -6,29 +6,45 @@
 package com.microsoft.jenkins.artifactmanager;
 
 import com.azure.core.http.rest.PagedIterable;
+import com.azure.core.util.Context;
 import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.models.AccessTier;
 import com.azure.storage.blob.models.BlobItem;
 import com.azure.storage.blob.models.BlobItemProperties;
 import com.azure.storage.blob.models.BlobProperties;
+import com.azure.storage.blob.models.BlobRange;
 import com.azure.storage.blob.models.BlobStorageException;
 import com.azure.storage.blob.models.ListBlobsOptions;
+import com.azure.storage.blob.models.RehydratePriority;
 import com.microsoftopentechnologies.windowsazurestorage.beans.StorageAccountInfo;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.model.Run;
+import hudson.FilePath;
+import hudson.Util;
 import hudson.remoting.Callable;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.SystemProperties;
 import jenkins.util.VirtualFile;
+import org.apache.tools.zip.ZipOutputStream;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.Serial;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
 import java.time.OffsetDateTime;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -37,7 +53,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,7 +66,12 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
 
     private static final Logger LOGGER = Logger.getLogger(AzureBlobVirtualFile.class.getName());
     private static final int NOT_FOUND = 404;
+    private static final int CONFLICT = 409;
+    private static final long DEFAULT_LISTING_CACHE_MAX_BYTES = 64L * 1024 * 1024;
 
+    /** Credentials of the storage account, or {@code null} for the configured default. */
+    @CheckForNull
+    private final String storageCredentialId;
     private final String container;
     private final String key;
 
@@ -56,6 +79,12 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
     private final transient Run<?, ?> build;
 
     public AzureBlobVirtualFile(String container, String key, boolean disableExternalUrl, Run<?, ?> build) {
+        this(null, container, key, disableExternalUrl, build);
+    }
+
+    public AzureBlobVirtualFile(@CheckForNull String storageCredentialId, String container, String key,
+                                boolean disableExternalUrl, Run<?, ?> build) {
+        this.storageCredentialId = storageCredentialId;
         this.container = container;
         this.key = key;
         this.build = build;
@@ -77,29 +106,122 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
      */
     private static final ThreadLocal<Map<String, Deque<CacheFrame>>> CACHE = ThreadLocal.withInitial(HashMap::new);
 
+    /**
+     * Listings of completed builds shared by all requests on this controller.
+     * Keys are the {@link #scope} and the {@link CacheFrame#root} of a full listing, or the {@link #levelScope} and
+     * the {@code /}-terminated prefix of a single directory level listed lazily by {@link #run}.
+     * Weight is the approximate heap footprint of the index in bytes, and both kinds of entries share the
+     * {@code listingCacheMaxBytes} budget.
+     */
+    private static final BlobListingCache<ListingIndex> LISTINGS = new BlobListingCache<>(
+            SystemProperties.getLong(AzureBlobVirtualFile.class.getName() + ".listingCacheMaxBytes",
+                    DEFAULT_LISTING_CACHE_MAX_BYTES),
+            ListingIndex::footprint);
+
+    /**
+     * Whether {@link #run} lists one directory at a time as it is visited, rather than every blob under its key
+     * up front. The latter takes fewer calls for callers which walk the whole tree anyway.
+     */
+    private static final boolean LAZY_LISTING =
+            SystemProperties.getBoolean(AzureBlobVirtualFile.class.getName() + ".lazyListing", true);
+
+    /**
+     * How long after a build finished its blobs are read from the secondary endpoint when
+     * {@link AzureArtifactConfig#getReadFromSecondary} is set, so that listings of the secondary are not missing
+     * blobs which are still being replicated.
+     */
+    private static final long SECONDARY_READ_DELAY = TimeUnit.MINUTES.toMillis(
+            SystemProperties.getLong(AzureBlobVirtualFile.class.getName() + ".secondaryReadDelayMinutes", 15L));
+
     private static final class CacheFrame {
         /** {@link #key} of the root virtual file plus a trailing {@code /}. */
         private final String root;
         /**
-         * Information about all known (recursive) child <em>files</em> (not directories).
-         * Keys are {@code /}-separated relative paths.
+         * Information about all known (recursive) child <em>files</em> (not directories),
+         * or {@code null} if this frame is populated lazily through {@link #levels}.
+         * Paths are {@code /}-separated and relative to {@link #root}.
          * If the root itself happened to be a file, that information is not cached.
          */
-        private final Map<String, CachedMetadata> children;
-        CacheFrame(String root, Map<String, CachedMetadata> children) {
+        @CheckForNull
+        private final ListingIndex children;
+        /**
+         * Direct children of the directories visited so far, keyed by their {@code /}-separated path relative
+         * to {@link #root}, {@code ""} being the root itself.
+         * Subdirectories are recorded as their name plus a trailing {@code /}.
+         */
+        private final Map<String, ListingIndex> levels = new HashMap<>();
+        @CheckForNull
+        private final Function<String, ListingIndex> levelLoader;
+
+        CacheFrame(String root, ListingIndex children) {
             this.root = root;
             this.children = children;
+            this.levelLoader = null;
         }
-    }
 
-    /**
-     * Record that a given file exists.
-     */
-    private static final class CachedMetadata {
-        private final long length, lastModified;
-        CachedMetadata(long length, long lastModified) {
-            this.length = length;
-            this.lastModified = lastModified;
+        CacheFrame(String root, Function<String, ListingIndex> levelLoader) {
+            this.root = root;
+            this.children = null;
+            this.levelLoader = levelLoader;
+        }
+
+        boolean isFile(String rel) {
+            if (children != null) {
+                return children.indexOf(rel) >= 0;
+            }
+            return level(parentOf(rel)).indexOf(nameOf(rel)) >= 0;
+        }
+
+        /**
+         * @param rel relative path without trailing slash, {@code ""} for the root
+         */
+        boolean isDirectory(String rel) {
+            if (children != null) {
+                return children.isDirectory(rel);
+            }
+            if (rel.isEmpty()) {
+                return level(rel).size() > 0;
+            }
+            return level(parentOf(rel)).isDirectory(nameOf(rel));
+        }
+
+        List<String> list(String rel) {
+            if (children != null) {
+                return children.children(rel);
+            }
+            return level(rel).children("");
+        }
+
+        long length(String rel) {
+            ListingIndex index = children != null ? children : level(parentOf(rel));
+            int i = index.indexOf(children != null ? rel : nameOf(rel));
+            return i >= 0 ? index.length(i) : 0;
+        }
+
+        long lastModified(String rel) {
+            ListingIndex index = children != null ? children : level(parentOf(rel));
+            int i = index.indexOf(children != null ? rel : nameOf(rel));
+            return i >= 0 ? index.lastModified(i) : 0;
+        }
+
+        @CheckForNull
+        byte[] md5(String rel) {
+            ListingIndex index = children != null ? children : level(parentOf(rel));
+            int i = index.indexOf(children != null ? rel : nameOf(rel));
+            return i >= 0 ? index.md5(i) : null;
+        }
+
+        private ListingIndex level(String dir) {
+            return levels.computeIfAbsent(dir, levelLoader);
+        }
+
+        private static String parentOf(String rel) {
+            int slash = rel.lastIndexOf('/');
+            return slash < 0 ? "" : rel.substring(0, slash);
+        }
+
+        private static String nameOf(String rel) {
+            return rel.substring(rel.lastIndexOf('/') + 1);
         }
     }
 
@@ -108,47 +230,248 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
     public <V> V run(Callable<V, IOException> callable) throws IOException {
         LOGGER.log(Level.FINE, "enter cache {0} / {1}", new Object[] {container, key});
         Deque<CacheFrame> stack = cacheFrames();
-        Map<String, CachedMetadata> saved = new HashMap<>();
+        String root = stripTrailingSlash(key) + "/";
+        // nested calls, e.g. list(String) inside zip, reuse the enclosing listing
+        CacheFrame frame = findCacheFrame(root, false);
+        if (frame == null) {
+            try {
+                BlobContainerClient blobContainerReference = readContainer();
+                if (LAZY_LISTING) {
+                    // each directory level counts as a lookup of its own
+                    frame = new CacheFrame(root, dir -> listLevel(blobContainerReference, root, dir));
+                } else {
+                    frame = new CacheFrame(root, listAll(blobContainerReference, root));
+                    if (isBuildCompleted()) {
+                        LISTINGS.recordMiss();
+                        LISTINGS.put(scope(), root, frame.children);
+                    }
+                }
+            } catch (RuntimeException x) {
+                throw new IOException(x);
+            }
+        }
+        stack.push(frame);
         try {
-            StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
-            BlobContainerClient blobContainerReference = Utils.getBlobContainerReference(accountInfo, this.container,
-                    false);
-            ListBlobsOptions listBlobsOptions = new ListBlobsOptions()
-                    .setPrefix(key);
+            LOGGER.log(Level.FINE, "using cache {0} / {1}: {2}", new Object[] {container, key,
+                frame.children != null ? frame.children.size() + " file entries" : "populated lazily"});
+            return callable.call();
+        } catch (UncheckedIOException x) {
+            // a directory level listed lazily by the callable failed
+            throw x.getCause();
+        } finally {
+            LOGGER.log(Level.FINE, "exit cache {0} / {1}", new Object[] {container, key});
+            stack.pop();
+        }
+    }
 
-            for (BlobItem sm : blobContainerReference.listBlobs(listBlobsOptions, null)) {
+    private static ListingIndex listAll(BlobContainerClient blobContainerReference, String root)
+            throws IOException {
+        ListingIndex.Builder saved = ListingIndex.builder();
+        try {
+            ParallelBlobLister.forEach(blobContainerReference, root, sm -> {
                 BlobItemProperties properties = sm.getProperties();
                 OffsetDateTime lastModified = properties.getLastModified();
                 long lastModifiedMilli = lastModified.toInstant().toEpochMilli();
-                String fileName = stripBeginningSlash(sm.getName().replaceFirst(key, ""));
-                saved.put(fileName,
-                        new CachedMetadata(properties.getContentLength(), lastModifiedMilli));
+                String fileName = sm.getName().substring(root.length());
+                synchronized (saved) {
+                    saved.add(fileName, properties.getContentLength(), lastModifiedMilli, properties.getContentMd5());
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing " + root);
+        }
+        return saved.build();
+    }
+
+    /**
+     * Lists the direct children of one directory below the {@link #run} root.
+     *
+     * @param dir {@code /}-separated path relative to the root, {@code ""} for the root itself
+     * @throws UncheckedIOException if listing fails, unwrapped again by {@link #run}
+     */
+    private ListingIndex listLevel(BlobContainerClient blobContainerReference, String root, String dir) {
+        String prefix = dir.isEmpty() ? root : root + dir + "/";
+        boolean completed = isBuildCompleted();
+        if (completed) {
+            ListingIndex cached = LISTINGS.get(levelScope(scope()), prefix);
+            if (cached != null) {
+                return cached;
             }
-        } catch (RuntimeException x) {
-            throw new IOException(x);
         }
-        stack.push(new CacheFrame(stripTrailingSlash(key) + "/", saved));
+        LOGGER.log(Level.FINE, "listing directory {0} / {1}", new Object[] {container, prefix});
+        ListingIndex.Builder level = ListingIndex.builder();
         try {
-            LOGGER.log(Level.FINE, "using cache {0} / {1}: {2} file entries",
-                    new Object[] {container, key, saved.size()});
-            return callable.call();
-        } finally {
-            LOGGER.log(Level.FINE, "exit cache {0} / {1}", new Object[] {container, key});
-            stack.pop();
+            ListBlobsOptions listBlobsOptions = HierarchicalNamespace.listOptions(blobContainerReference, prefix);
+            for (BlobItem sm : blobContainerReference.listBlobsByHierarchy(Constants.FORWARD_SLASH,
+                    listBlobsOptions, null)) {
+                String name = sm.getName().substring(prefix.length());
+                if (HierarchicalNamespace.isDirectoryEntry(sm)) {
+                    continue;
+                }
+                if (Boolean.TRUE.equals(sm.isPrefix())) {
+                    level.add(name, 0, 0);
+                } else {
+                    BlobItemProperties properties = sm.getProperties();
+                    OffsetDateTime lastModified = properties.getLastModified();
+                    level.add(name, properties.getContentLength(),
+                            lastModified == null ? 0 : lastModified.toInstant().toEpochMilli(),
+                            properties.getContentMd5());
+                }
+            }
+        } catch (RuntimeException x) {
+            throw new UncheckedIOException(new IOException("Failed to list " + container + " / " + prefix, x));
+        }
+        ListingIndex index = level.build();
+        if (completed) {
+            LISTINGS.put(levelScope(scope()), prefix, index);
+        }
+        return index;
+    }
+
+    /**
+     * Archived artifacts of a build no longer change once it has completed, so its listings may be shared.
+     */
+    private boolean isBuildCompleted() {
+        return build != null && !build.isBuilding();
+    }
+
+    private BlobContainerClient primaryContainer() {
+        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent(), storageCredentialId);
+        return Utils.getBlobContainerReference(accountInfo, this.container, false);
+    }
+
+    /**
+     * @return the container on the secondary endpoint if reading from it is enabled and the build finished long
+     *     enough ago to have been replicated, otherwise {@code null}
+     */
+    @CheckForNull
+    private BlobContainerClient secondaryContainer() {
+        if (!Utils.getArtifactConfig().getReadFromSecondary() || !isBuildCompleted()
+                || build.getStartTimeInMillis() + build.getDuration() + SECONDARY_READ_DELAY
+                        > System.currentTimeMillis()) {
+            return null;
+        }
+        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent(), storageCredentialId);
+        return Utils.getSecondaryBlobContainerReference(accountInfo, this.container);
+    }
+
+    /**
+     * Container to list and read from: the {@link #secondaryContainer} if there is one, otherwise the primary.
+     */
+    private BlobContainerClient readContainer() {
+        BlobContainerClient secondary = secondaryContainer();
+        return secondary != null ? secondary : primaryContainer();
+    }
+
+    /**
+     * Reads this blob from the {@link #secondaryContainer} if there is one, falling back to the primary if it is
+     * not found there, e.g. because replication is lagging behind.
+     */
+    private <T> T readBlob(Function<BlobClient, T> read) {
+        BlobContainerClient secondary = secondaryContainer();
+        if (secondary != null) {
+            try {
+                return read.apply(secondary.getBlobClient(this.key));
+            } catch (BlobStorageException e) {
+                if (e.getStatusCode() != NOT_FOUND) {
+                    throw e;
+                }
+                LOGGER.log(Level.FINE, "{0} / {1} not found on the secondary endpoint, reading from the primary",
+                        new Object[] {container, key});
+            }
+        }
+        return read.apply(primaryContainer().getBlobClient(this.key));
+    }
+
+    /**
+     * Finds a listing of a completed build covering the given {@code /}-terminated key without calling storage:
+     * either a listing shared by an earlier request, or the manifest written when the artifacts were archived.
+     *
+     * @param countMiss whether not finding a shared listing ends the lookup, rather than it going on in
+     *     {@link #listLevel}
+     */
+    private @CheckForNull CacheFrame sharedFrame(String cacheKey, boolean countMiss) {
+        if (!isBuildCompleted()) {
+            return null;
         }
+        Map.Entry<String, ListingIndex> cached = LISTINGS.getClosest(scope(), cacheKey);
+        if (cached != null) {
+            LOGGER.log(Level.FINER, "using shared listing of {0} / {1} ({2})",
+                    new Object[] {container, cached.getKey(), LISTINGS});
+            return new CacheFrame(cached.getKey(), cached.getValue());
+        }
+        if (build.getArtifactManager() instanceof AzureArtifactManager manager
+                && Objects.equals(storageCredentialId, manager.getStorageCredentialId())
+                && container.equals(manager.getActualContainerName())
+                && cacheKey.startsWith(manager.getArtifactsRoot())) {
+            ListingIndex index = manager.getManifestIndex();
+            if (index != null) {
+                LISTINGS.recordMiss();
+                LOGGER.log(Level.FINE, "using artifact manifest of {0} / {1}: {2} file entries",
+                        new Object[] {container, manager.getArtifactsRoot(), index.size()});
+                LISTINGS.put(scope(), manager.getArtifactsRoot(), index);
+                return new CacheFrame(manager.getArtifactsRoot(), index);
+            }
+        }
+        if (countMiss) {
+            LISTINGS.recordMiss();
+        }
+        return null;
+    }
+
+    /**
+     * Drops shared listings of the given container below the given prefix, e.g. when a build is deleted.
+     */
+    static void invalidateCache(@CheckForNull String storageCredentialId, String container, String prefix) {
+        String scope = scope(storageCredentialId, container);
+        int count = LISTINGS.invalidate(scope, prefix) + LISTINGS.invalidate(levelScope(scope), prefix);
+        LOGGER.log(Level.FINE, "invalidated {0} shared listings of {1} / {2}",
+                new Object[] {count, container, prefix});
     }
 
     private Deque<CacheFrame> cacheFrames() {
-        return CACHE.get().computeIfAbsent(container, c -> new ArrayDeque<>());
+        return CACHE.get().computeIfAbsent(scope(), c -> new ArrayDeque<>());
+    }
+
+    /**
+     * Key of the listing caches; containers of the same name may exist in several storage accounts.
+     */
+    private String scope() {
+        return scope(storageCredentialId, container);
+    }
+
+    private static String scope(@CheckForNull String storageCredentialId, String container) {
+        return storageCredentialId == null ? container : storageCredentialId + ":" + container;
+    }
+
+    /**
+     * Scope of lazily listed directory levels, kept apart from full listings of the same prefix.
+     * Container names cannot contain {@code /}, so this never clashes with a {@link #scope}.
+     */
+    private static String levelScope(String scope) {
+        return scope + "/levels";
+    }
+
+    /**
+     * Hit, miss and eviction counts of the shared listings, shown on the global configuration page.
+     */
+    static BlobListingCache<?> listingCache() {
+        return LISTINGS;
     }
 
     /**
      * Finds a cache frame whose {@link CacheFrame#root} is a prefix of the given {@link #key}
      * or {@code /}-appended variant.
-     *
+     * Outside of {@link #run}, completed builds may still be served from a shared listing or manifest.
      */
     private @CheckForNull CacheFrame findCacheFrame(String cacheKey) {
-        return cacheFrames().stream().filter(frame -> cacheKey.startsWith(frame.root)).findFirst().orElse(null);
+        return findCacheFrame(cacheKey, true);
+    }
+
+    private @CheckForNull CacheFrame findCacheFrame(String cacheKey, boolean countMiss) {
+        CacheFrame frame = cacheFrames().stream().filter(f -> cacheKey.startsWith(f.root)).findFirst().orElse(null);
+        return frame != null ? frame : sharedFrame(cacheKey, countMiss);
     }
 
 
@@ -168,18 +491,10 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
         return localKey;
     }
 
-    private String stripBeginningSlash(String string) {
-        String localKey = string;
-        if (string.startsWith("/")) {
-            localKey = localKey.substring(1);
-        }
-        return localKey;
-    }
-
     @NonNull
     @Override
     public URI toURI() {
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
+        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent(), storageCredentialId);
         try {
             return new URI(Utils.getBlobUrl(accountInfo, this.container, this.key));
         } catch (URISyntaxException e) {
@@ -191,14 +506,14 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
     @Override
     public URL toExternalURL() throws IOException {
         if (!this.disableExternalUrl) {
-            StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
-            String sas;
+            StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent(), storageCredentialId);
+            String url;
             try {
-                sas = Utils.generateBlobSASURL(accountInfo, this.container, this.key);
+                url = Utils.getSignedBlobUrl(accountInfo, this.container, this.key);
             } catch (Exception e) {
                 throw new IOException(e);
             }
-            return new URL(toURI() + "?" + sas);
+            return new URL(url);
         } else {
             return null;
         }
@@ -206,8 +521,8 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
 
     @Override
     public VirtualFile getParent() {
-        return new AzureBlobVirtualFile(this.container, this.key.replaceFirst("/[^/]+$", Constants.EMPTY_STRING),
-            this.disableExternalUrl, this.build);
+        return new AzureBlobVirtualFile(this.storageCredentialId, this.container,
+            this.key.replaceFirst("/[^/]+$", Constants.EMPTY_STRING), this.disableExternalUrl, this.build);
     }
 
     @Override
@@ -222,22 +537,17 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
         CacheFrame frame = findCacheFrame(keyS);
         if (frame != null) {
             LOGGER.log(Level.FINER, "cache hit on directory status of {0} / {1}", new Object[] {container, this.key});
-            String relSlash = stripTrailingSlash(keyS.substring(frame.root.length())); // "" or "sub/dir/"
-            Set<String> children = frame.children.keySet();
-            boolean existsInCache = children.stream().anyMatch(f -> f.startsWith(relSlash));
-            // if we don't know about it then it's not a directory
-            if (!existsInCache) {
-                return false;
-            }
-            // if it's not an exact file path then it's not a directory
-            return children.stream().noneMatch(f -> f.equals(relSlash));
+            String rel = stripTrailingSlash(keyS.substring(frame.root.length())); // "" or "sub/dir"
+            // if we don't know about anything below it, or it is an exact file path, then it's not a directory
+            return frame.isDirectory(rel);
         }
 
         LOGGER.log(Level.FINE, "checking directory status {0} / {1}", new Object[]{container, keyWithNoSlash});
 
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
-        BlobContainerClient blobContainerReference = Utils.getBlobContainerReference(accountInfo, this.container,
-                false);
+        BlobContainerClient blobContainerReference = readContainer();
+        if (HierarchicalNamespace.isEnabled(blobContainerReference)) {
+            return HierarchicalNamespace.isDirectory(blobContainerReference, keyWithNoSlash);
+        }
         Iterator<BlobItem> iterator = blobContainerReference.listBlobsByHierarchy(keyS).iterator();
         return iterator.hasNext();
     }
@@ -253,16 +563,12 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
         CacheFrame frame = findCacheFrame(keyS);
         if (frame != null) {
             String rel = stripTrailingSlash(keyS.substring(frame.root.length()));
-            CachedMetadata metadata = frame.children.get(rel);
             LOGGER.log(Level.FINER, "cache hit on file status of {0} / {1}", new Object[] {container, key});
-            return metadata != null;
+            return frame.isFile(rel);
         }
 
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
-        BlobContainerClient blobContainerReference = Utils.getBlobContainerReference(accountInfo, this.container,
-                false);
-        BlobClient blockBlobReference = blobContainerReference.getBlobClient(key);
-        return blockBlobReference.exists();
+        // the primary is authoritative, so a single request answers even while replication lags behind
+        return primaryContainer().getBlobClient(key).exists();
     }
 
     @Override
@@ -277,14 +583,9 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
         CacheFrame frame = findCacheFrame(keyS);
         if (frame != null) {
             LOGGER.log(Level.FINER, "cache hit on listing of {0} / {1}", new Object[] {container, key});
-            String relSlash = keyS.substring(frame.root.length()); // "" or "sub/dir/"
-            VirtualFile[] virtualFiles = frame.children.keySet().stream() // filenames relative to frame root
-                    .filter(f -> f.startsWith(relSlash)) // those inside this dir
-                    // just the file simple name, or direct subdir name
-                    .map(f -> f.substring(relSlash.length()).replaceFirst("/.+", ""))
-                    .distinct() // ignore duplicates if have multiple files under one direct subdir
-                    // direct children
-                    .map(simple -> new AzureBlobVirtualFile(this.container, keyS + simple,
+            String rel = stripTrailingSlash(keyS.substring(frame.root.length())); // "" or "sub/dir"
+            VirtualFile[] virtualFiles = frame.list(rel).stream() // direct file or subdir names
+                    .map(simple -> new AzureBlobVirtualFile(this.storageCredentialId, this.container, keyS + simple,
                         this.disableExternalUrl, this.build))
                     .toArray(VirtualFile[]::new);
             return virtualFiles;
@@ -293,19 +594,21 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
         VirtualFile[] list;
         String keys = stripTrailingSlash(this.key) + Constants.FORWARD_SLASH;
 
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
-        BlobContainerClient blobContainerReference = Utils.getBlobContainerReference(accountInfo, this.container,
-                false);
+        BlobContainerClient blobContainerReference = readContainer();
         list = listBlobsFromPrefix(keys, blobContainerReference).toArray(new VirtualFile[0]);
         return list;
     }
 
     private List<VirtualFile> listBlobsFromPrefix(String keys, BlobContainerClient blobContainerReference) {
-        PagedIterable<BlobItem> blobItems = blobContainerReference.listBlobsByHierarchy(keys);
+        PagedIterable<BlobItem> blobItems = blobContainerReference.listBlobsByHierarchy(Constants.FORWARD_SLASH,
+                HierarchicalNamespace.listOptions(blobContainerReference, keys), null);
         List<VirtualFile> files = new ArrayList<>();
         for (BlobItem blobItem : blobItems) {
-            files.add(new AzureBlobVirtualFile(this.container, stripTrailingSlash(blobItem.getName()),
-                this.disableExternalUrl, this.build));
+            if (HierarchicalNamespace.isDirectoryEntry(blobItem)) {
+                continue;
+            }
+            files.add(new AzureBlobVirtualFile(this.storageCredentialId, this.container,
+                stripTrailingSlash(blobItem.getName()), this.disableExternalUrl, this.build));
         }
         return files;
     }
@@ -314,7 +617,8 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
     @Override
     public VirtualFile child(@NonNull String name) {
         String joinedKey = stripTrailingSlash(this.key) + Constants.FORWARD_SLASH + name;
-        return new AzureBlobVirtualFile(this.container, joinedKey, this.disableExternalUrl, build);
+        return new AzureBlobVirtualFile(this.storageCredentialId, this.container, joinedKey, this.disableExternalUrl,
+                build);
     }
 
     @Override
@@ -323,18 +627,12 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
         CacheFrame frame = findCacheFrame(keyS);
         if (frame != null) {
             String rel = stripTrailingSlash(keyS.substring(frame.root.length()));
-            CachedMetadata metadata = frame.children.get(rel);
             LOGGER.log(Level.FINER, "cache hit on length of {0} / {1}", new Object[] {container, key});
-            return metadata != null ? metadata.length : 0;
+            return frame.length(rel);
         }
 
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
         try {
-            BlobContainerClient blobContainerReference = Utils.getBlobContainerReference(accountInfo, this.container,
-                    false);
-            BlobClient blobClient = blobContainerReference.getBlobClient(this.key);
-
-            BlobProperties properties = blobClient.getProperties();
+            BlobProperties properties = readBlob(BlobClient::getProperties);
 
             return properties.getBlobSize();
         } catch (BlobStorageException e) {
@@ -345,27 +643,46 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
         }
     }
 
+    /**
+     * MD5 of the content as stored with the blob when it was uploaded, used as the entity tag by
+     * {@link AzureArtifactFilter}. Taken from the cache frame or the manifest when one is active, otherwise from a
+     * single properties request.
+     *
+     * @return the digest, or {@code null} if the blob was uploaded without one or does not exist
+     */
+    @CheckForNull
+    public byte[] getContentMd5() throws IOException {
+        String keyS = key + "/";
+        CacheFrame frame = findCacheFrame(keyS);
+        if (frame != null) {
+            return frame.md5(stripTrailingSlash(keyS.substring(frame.root.length())));
+        }
+        try {
+            return readBlob(BlobClient::getProperties).getContentMd5();
+        } catch (BlobStorageException e) {
+            if (e.getStatusCode() == NOT_FOUND) {
+                return null;
+            }
+            throw new IOException(e.getMessage());
+        }
+    }
+
     @Override
     public long lastModified() throws IOException {
         String keyS = key + "/";
         CacheFrame frame = findCacheFrame(keyS);
         if (frame != null) {
             String rel = stripTrailingSlash(keyS.substring(frame.root.length()));
-            CachedMetadata metadata = frame.children.get(rel);
             LOGGER.log(Level.FINER, "cache hit on lastModified of {0} / {1}", new Object[] {container, key});
-            return metadata != null ? metadata.lastModified : 0;
+            return frame.lastModified(rel);
         }
 
         if (isDirectory()) {
             return 0;
         }
 
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
         try {
-            BlobContainerClient blobContainerReference = Utils.getBlobContainerReference(accountInfo, this.container,
-                    false);
-            BlobClient blockBlobReference = blobContainerReference.getBlobClient(this.key);
-            BlobProperties properties = blockBlobReference.getProperties();
+            BlobProperties properties = readBlob(BlobClient::getProperties);
             OffsetDateTime lastModified = properties.getLastModified();
             return lastModified == null ? 0 : lastModified.toInstant().toEpochMilli();
         } catch (BlobStorageException e) {
@@ -382,18 +699,338 @@ public class AzureBlobVirtualFile extends AzureAbstractVirtualFile {
         return true;
     }
 
+    /**
+     * Opens the blob for reading.
+     * The size is taken from the cache frame when one is active, otherwise from a single properties request, and
+     * the content is then downloaded in ranges ahead of the reader by {@link BlobReadAheadInputStream}.
+     * Content read to the end is checked against the MD5 stored with the blob, if any.
+     * Artifacts in the archive tier are requested back and fail with {@link ArtifactOfflineException} meanwhile.
+     */
     @Override
     public InputStream open() throws IOException {
-        if (isDirectory()) {
-            throw new FileNotFoundException("Cannot open it because it is a directory.");
+        return open(openBlob());
+    }
+
+    /**
+     * Opens the file described by {@link #stat} without another request.
+     */
+    InputStream open(FileStatus status) throws IOException {
+        return open(openBlob(status));
+    }
+
+    private InputStream open(SizedBlob blob) {
+        InputStream in = new BlobReadAheadInputStream(blob.client(), blob.fallback(), blob.length());
+        return blob.md5() == null ? in : new ChecksumInputStream(in, blob.md5(), key);
+    }
+
+    /**
+     * Opens the blob for random access, so that callers which only need a slice of a large artifact, such as the
+     * central directory of a zip or the tail of a log, download just that slice.
+     *
+     * @return a read-only channel
+     * @throws FileNotFoundException if this is not a file
+     */
+    public SeekableByteChannel openSeekable() throws IOException {
+        return openSeekable(openBlob());
+    }
+
+    /**
+     * Opens the file described by {@link #stat} for random access without another request.
+     */
+    SeekableByteChannel openSeekable(FileStatus status) throws IOException {
+        return openSeekable(openBlob(status));
+    }
+
+    private static SeekableByteChannel openSeekable(SizedBlob blob) {
+        return new BlobSeekableByteChannel(blob.length(), rangeReader(blob.client(), blob.fallback()));
+    }
+
+    /**
+     * Zips the matching files from a single listing, downloading them concurrently with {@link ParallelZipWriter}
+     * rather than opening one blob after the other. Used by core's directory browser as well as by
+     * {@link AzureArtifactFilter}, which serves the {@code *zip*} links of artifact directories.
+     */
+    @Override
+    public int zip(OutputStream outputStream, String includes, String excludes, boolean useDefaultExcludes,
+                   String prefix, OpenOption... openOptions) throws IOException {
+        String correctPrefix = Util.fixEmptyAndTrim(prefix) == null ? "" : Util.ensureEndsWith(prefix, "/");
+        BlobContainerClient primary = primaryContainer();
+        BlobContainerClient secondary = secondaryContainer();
+        List<ArtifactManifest.Entry> files = run(new ListFiles(this, includes, excludes, useDefaultExcludes));
+        try (ZipOutputStream zos = new ZipOutputStream(outputStream)) {
+            // same encoding as core's directory browser
+            zos.setEncoding(System.getProperty("file.encoding"));
+            List<ParallelZipWriter.Entry> entries = new ArrayList<>(files.size());
+            for (ArtifactManifest.Entry file : files) {
+                BlobClient blob = primary.getBlobClient(childKey(file.path()));
+                entries.add(new ParallelZipWriter.Entry(correctPrefix + file.path(), file.length(),
+                        file.lastModified(), secondary == null ? rangeReader(blob, null)
+                                : rangeReader(secondary.getBlobClient(childKey(file.path())), blob)));
+            }
+            new ParallelZipWriter(entries).write(zos);
+        }
+        return files.size();
+    }
+
+    /**
+     * Downloads every file below this directory, or this file itself, straight from storage into the given
+     * directory, which is typically on an agent, with {@link ParallelBlobDownload}.
+     *
+     * @param target directory to download into; paths below this directory are preserved
+     * @return the number of downloaded files, {@code 0} if there is nothing here
+     */
+    public int downloadTo(@NonNull FilePath target) throws IOException, InterruptedException {
+        return downloadTo(target, secondaryContainer());
+    }
+
+    /**
+     * @param secondary container to read from, falling back to the primary, or {@code null} to read the primary
+     */
+    int downloadTo(@NonNull FilePath target, @CheckForNull BlobContainerClient secondary)
+            throws IOException, InterruptedException {
+        BlobContainerClient primary = primaryContainer();
+        List<ArtifactManifest.Entry> files;
+        boolean single;
+        try {
+            // a single request tells a file from a directory, which has no blob of its own
+            BlobProperties properties = primary.getBlobClient(key).getProperties();
+            OffsetDateTime lastModified = properties.getLastModified();
+            files = List.of(new ArtifactManifest.Entry(getName(), properties.getBlobSize(),
+                    lastModified == null ? 0 : lastModified.toInstant().toEpochMilli(), null,
+                    ArtifactManifest.Entry.base64(properties.getContentMd5())));
+            single = true;
+        } catch (BlobStorageException e) {
+            if (e.getStatusCode() != NOT_FOUND) {
+                throw new IOException(e.getMessage());
+            }
+            files = run(new ListFiles(this, "**", null, false));
+            single = false;
+        }
+        if (files.isEmpty()) {
+            return 0;
+        }
+        List<ParallelBlobDownload.Item> items = new ArrayList<>(files.size());
+        for (ArtifactManifest.Entry file : files) {
+            String blobKey = single ? key : childKey(file.path());
+            BlobClient blob = primary.getBlobClient(blobKey);
+            byte[] md5 = file.md5Bytes();
+            items.add(secondary == null
+                    ? ParallelBlobDownload.item(file.path(), blob, null, file.length(), file.lastModified(), md5)
+                    : ParallelBlobDownload.item(file.path(), secondary.getBlobClient(blobKey), blob, file.length(),
+                            file.lastModified(), md5));
+        }
+        target.mkdirs();
+        return target.act(new ParallelBlobDownload(Jenkins.get().getProxy(), items));
+    }
+
+    private String childKey(String path) {
+        return stripTrailingSlash(key) + Constants.FORWARD_SLASH + path;
+    }
+
+    /**
+     * Collects paths, sizes, timestamps and checksums of the matching files within a single cache frame.
+     */
+    private static final class ListFiles extends MasterToSlaveCallable<List<ArtifactManifest.Entry>, IOException> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final AzureBlobVirtualFile root;
+        private final String includes;
+        private final String excludes;
+        private final boolean useDefaultExcludes;
+
+        ListFiles(AzureBlobVirtualFile root, String includes, String excludes, boolean useDefaultExcludes) {
+            this.root = root;
+            this.includes = includes;
+            this.excludes = excludes;
+            this.useDefaultExcludes = useDefaultExcludes;
+        }
+
+        @Override
+        public List<ArtifactManifest.Entry> call() throws IOException {
+            List<ArtifactManifest.Entry> entries = new ArrayList<>();
+            for (String path : root.list(includes, excludes, useDefaultExcludes)) {
+                VirtualFile file = root.child(path);
+                byte[] md5 = file instanceof AzureBlobVirtualFile blob ? blob.getContentMd5() : null;
+                entries.add(new ArtifactManifest.Entry(path, file.length(), file.lastModified(), null,
+                        ArtifactManifest.Entry.base64(md5)));
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * @param fallback blob to read instead if {@code blockBlobReference} is not found, or {@code null}
+     */
+    private static BlobSeekableByteChannel.RangeReader rangeReader(BlobClient blockBlobReference,
+                                                                   @CheckForNull BlobClient fallback) {
+        return (offset, count) -> {
+            try {
+                try {
+                    return downloadRange(blockBlobReference, offset, count);
+                } catch (BlobStorageException e) {
+                    if (fallback == null || e.getStatusCode() != NOT_FOUND) {
+                        throw e;
+                    }
+                    return downloadRange(fallback, offset, count);
+                }
+            } catch (BlobStorageException e) {
+                throw new IOException(e.getMessage());
+            }
+        };
+    }
+
+    private static byte[] downloadRange(BlobClient blob, long offset, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count);
+        blob.downloadStreamWithResponse(out, new BlobRange(offset, (long) count), null, null, false, null,
+                Context.NONE);
+        return out.toByteArray();
+    }
+
+    /**
+     * Resolves the blob to read this file from, together with its size.
+     * Within a cache frame no request is made, so a blob on the {@link #secondaryContainer} comes with the primary
+     * one as fallback, for files listed from the manifest or the primary which have not been replicated yet.
+     *
+     * @throws FileNotFoundException if this is a directory or does not exist
+     */
+    private SizedBlob openBlob() throws IOException {
+        String keyS = key + "/";
+        CacheFrame frame = findCacheFrame(keyS);
+        if (frame != null) {
+            String rel = stripTrailingSlash(keyS.substring(frame.root.length()));
+            if (!frame.isFile(rel)) {
+                throw new FileNotFoundException(frame.isDirectory(rel)
+                        ? "Cannot open it because it is a directory."
+                        : "Cannot open it because it is not a file.");
+            }
+            if (isArchived()) {
+                checkOnline(readBlob(BlobClient::getProperties));
+            }
+            BlobClient primary = primaryContainer().getBlobClient(this.key);
+            BlobContainerClient secondary = secondaryContainer();
+            return secondary == null
+                    ? new SizedBlob(primary, null, frame.length(rel), frame.md5(rel))
+                    : new SizedBlob(secondary.getBlobClient(this.key), primary, frame.length(rel), frame.md5(rel));
+        }
+        try {
+            Map.Entry<BlobClient, BlobProperties> found = readBlob(blob -> Map.entry(blob, blob.getProperties()));
+            checkOnline(found.getValue());
+            return new SizedBlob(found.getKey(), null, found.getValue().getBlobSize(),
+                    found.getValue().getContentMd5());
+        } catch (BlobStorageException e) {
+            if (e.getStatusCode() == NOT_FOUND) {
+                throw new FileNotFoundException(isDirectory()
+                        ? "Cannot open it because it is a directory."
+                        : "Cannot open it because it is not a file.");
+            }
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Reads size, modification time and MD5 of this file together, from the cache frame or the manifest when one
+     * is active, otherwise from a single properties request, so that callers needing all of them, such as
+     * {@link AzureArtifactFilter}, do not make one request each.
+     *
+     * @return the status, or {@code null} if this is not a file
+     */
+    @CheckForNull
+    FileStatus stat() throws IOException {
+        String keyS = key + "/";
+        if (keyS.endsWith("/*view*/")) {
+            return null;
         }
-        if (!isFile()) {
-            throw new FileNotFoundException("Cannot open it because it is not a file.");
+        CacheFrame frame = findCacheFrame(keyS);
+        if (frame != null) {
+            String rel = stripTrailingSlash(keyS.substring(frame.root.length()));
+            return frame.isFile(rel)
+                    ? new FileStatus(frame.length(rel), frame.lastModified(rel), frame.md5(rel), null, null)
+                    : null;
+        }
+        try {
+            Map.Entry<BlobClient, BlobProperties> found = readBlob(blob -> Map.entry(blob, blob.getProperties()));
+            BlobProperties properties = found.getValue();
+            OffsetDateTime lastModified = properties.getLastModified();
+            return new FileStatus(properties.getBlobSize(),
+                    lastModified == null ? 0 : lastModified.toInstant().toEpochMilli(), properties.getContentMd5(),
+                    found.getKey(), properties);
+        } catch (BlobStorageException e) {
+            if (e.getStatusCode() == NOT_FOUND) {
+                return null;
+            }
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Like {@link #openBlob()}, reusing the properties read by {@link #stat} if there are any.
+     */
+    private SizedBlob openBlob(FileStatus status) throws IOException {
+        if (status.properties() == null) {
+            return openBlob();
+        }
+        checkOnline(status.properties());
+        return new SizedBlob(status.client(), null, status.length(), status.md5());
+    }
+
+    /**
+     * @param md5 digest stored with the blob, or {@code null} if there is none
+     * @param client blob the properties were read from, or {@code null} if they came from a listing
+     * @param properties the properties, or {@code null} if they came from a listing
+     */
+    record FileStatus(long length, long lastModified, @CheckForNull byte[] md5, @CheckForNull BlobClient client,
+                      @CheckForNull BlobProperties properties) {
+    }
+
+    /**
+     * @param fallback blob to read if {@code client} is not found, or {@code null}
+     */
+    private record SizedBlob(BlobClient client, @CheckForNull BlobClient fallback, long length,
+                             @CheckForNull byte[] md5) {
+    }
+
+    /**
+     * Whether the artifacts of the build have been moved to the archive tier, see {@link AzureArtifactTiering}.
+     */
+    private boolean isArchived() {
+        return build != null && build.getArtifactManager() instanceof AzureArtifactManager manager
+                && Constants.TIER_ARCHIVE.equals(manager.getAccessTier());
+    }
+
+    /**
+     * Requests a blob in the archive tier back to the cool tier, as it cannot be read until then.
+     *
+     * @throws ArtifactOfflineException if the blob is in the archive tier
+     */
+    private void checkOnline(BlobProperties properties) throws IOException {
+        if (!AccessTier.ARCHIVE.equals(properties.getAccessTier())) {
+            return;
+        }
+        if (properties.getArchiveStatus() != null) {
+            throw new ArtifactOfflineException(Messages.AzureBlobVirtualFile_rehydration_pending(getName()));
+        }
+        try {
+            primaryContainer().getBlobClient(this.key).setAccessTierWithResponse(AccessTier.COOL,
+                    RehydratePriority.STANDARD, null, null, Context.NONE);
+        } catch (BlobStorageException e) {
+            // conflicts with a rehydration requested concurrently
+            if (e.getStatusCode() != CONFLICT) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        throw new ArtifactOfflineException(Messages.AzureBlobVirtualFile_rehydration_started(getName()));
+    }
+
+    /**
+     * Thrown when opening an artifact which is in the archive tier and cannot be read for a few hours.
+     */
+    static final class ArtifactOfflineException extends IOException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        ArtifactOfflineException(String message) {
+            super(message);
         }
-        StorageAccountInfo accountInfo = Utils.getStorageAccount(build.getParent());
-        BlobContainerClient blobContainerReference = Utils.getBlobContainerReference(accountInfo, this.container,
-                false);
-        BlobClient blockBlobReference = blobContainerReference.getBlobClient(this.key);
-        return blockBlobReference.openInputStream();
     }
 }
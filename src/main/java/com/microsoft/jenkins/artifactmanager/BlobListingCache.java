@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Controller-wide LRU cache of blob listings keyed by container and prefix.
+ * Entries are evicted in least-recently-used order once the total weight exceeds the configured maximum.
+ *
+ * @param <V> type of the cached listing
+ */
+final class BlobListingCache<V> {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<Key, Weighted<V>> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    private long weight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    BlobListingCache(long maxWeight, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    @CheckForNull
+    synchronized V get(String container, String prefix) {
+        Weighted<V> entry = entries.get(new Key(container, prefix));
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * Looks up the entry for the given {@code /}-terminated prefix or, failing that, for its closest ancestor.
+     * Only a hit is counted: the caller may still be served by a finer entry looked up with {@link #get}, so it
+     * calls {@link #recordMiss} itself once nothing cached could serve it.
+     *
+     * @return the matching prefix and its value, or {@code null} if neither the prefix nor any ancestor is cached
+     */
+    @CheckForNull
+    synchronized Map.Entry<String, V> getClosest(String container, String prefix) {
+        String candidate = prefix;
+        while (!candidate.isEmpty()) {
+            Weighted<V> entry = entries.get(new Key(container, candidate));
+            if (entry != null) {
+                hitCount++;
+                return Map.entry(candidate, entry.value);
+            }
+            candidate = candidate.substring(0, candidate.lastIndexOf('/', candidate.length() - 2) + 1);
+        }
+        return null;
+    }
+
+    synchronized void recordMiss() {
+        missCount++;
+    }
+
+    synchronized void put(String container, String prefix, V value) {
+        long entryWeight = Math.max(1, weigher.applyAsLong(value));
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        Weighted<V> previous = entries.put(new Key(container, prefix), new Weighted<>(value, entryWeight));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entryWeight;
+
+        Iterator<Weighted<V>> eldest = entries.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Drops every entry of the given container whose prefix starts with the given prefix.
+     *
+     * @return the number of dropped entries
+     */
+    synchronized int invalidate(String container, String prefix) {
+        int count = 0;
+        Iterator<Map.Entry<Key, Weighted<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Weighted<V>> entry = it.next();
+            if (entry.getKey().container.equals(container) && entry.getKey().prefix.startsWith(prefix)) {
+                weight -= entry.getValue().weight;
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getWeight() {
+        return weight;
+    }
+
+    long getMaxWeight() {
+        return maxWeight;
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entries, weight %d/%d, %d hits, %d misses, %d evictions",
+                entries.size(), weight, maxWeight, hitCount, missCount, evictionCount);
+    }
+
+    private record Key(String container, String prefix) {
+    }
+
+    private record Weighted<V>(V value, long weight) {
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.models.BlobRange;
+import com.azure.storage.blob.models.BlobStorageException;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import jenkins.util.SystemProperties;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a blob of known length by downloading fixed-size ranges ahead of the reader on {@link StorageExecutor}.
+ * <p>
+ * At most {@link #DEPTH} ranges are in flight or buffered at a time, and their buffers are recycled, so memory
+ * use per stream is bounded. Buffers are no larger than the rest of the blob, and all streams together hold at
+ * most {@link #MAX_BUFFERED_BYTES}: a stream reads ahead only while that budget allows, and waits for it only
+ * briefly before reading straight into the caller's array instead. Streams which are never closed return their
+ * share of the budget once they are garbage collected. Nothing is downloaded until the first read, and
+ * {@link #skip} moves the read position without downloading the skipped bytes.
+ */
+final class BlobReadAheadInputStream extends InputStream {
+    private static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final int DEFAULT_DEPTH = 4;
+    private static final int DEFAULT_MAX_BUFFERED_BYTES = 256 * 1024 * 1024;
+
+    static final int MAX_BUFFERED_BYTES = Math.max(1, SystemProperties.getInteger(
+            BlobReadAheadInputStream.class.getName() + ".maxBufferedBytes", DEFAULT_MAX_BUFFERED_BYTES));
+    static final int BLOCK_SIZE = Math.max(1, Math.min(MAX_BUFFERED_BYTES, SystemProperties.getInteger(
+            BlobReadAheadInputStream.class.getName() + ".blockSize", DEFAULT_BLOCK_SIZE)));
+    static final int DEPTH = Math.max(1, SystemProperties.getInteger(
+            BlobReadAheadInputStream.class.getName() + ".depth", DEFAULT_DEPTH));
+
+    /** Bytes of buffers not allocated by any stream. */
+    private static final Semaphore BUFFER_BUDGET = new Semaphore(MAX_BUFFERED_BYTES);
+    private static final long BUDGET_WAIT_MILLIS = 500;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private static final int NOT_FOUND = 404;
+
+    private final BlobClient blob;
+    /** Read instead of {@link #blob} once that is not found, e.g. on a secondary endpoint lagging behind. */
+    @CheckForNull
+    private final BlobClient fallback;
+    private volatile boolean useFallback;
+    private final long length;
+    private final Deque<Block> pending = new ArrayDeque<>();
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+
+    /** Offset of the next byte returned to the reader. */
+    private long position;
+    /** Offset of the next range to schedule. */
+    private long nextFetch;
+
+    private byte[] current;
+    private long currentStart;
+    private int currentOffset;
+    private int currentLimit;
+    private boolean closed;
+    /** Bytes of {@link #BUFFER_BUDGET} held by this stream's buffers, released at the latest by {@link #CLEANER}. */
+    private final Reservation reserved = new Reservation();
+    /** Whether waiting for the budget has timed out before, in which case reads no longer wait for it. */
+    private boolean starved;
+
+    BlobReadAheadInputStream(BlobClient blob, @CheckForNull BlobClient fallback, long length) {
+        this.blob = blob;
+        this.fallback = fallback;
+        this.length = length;
+        CLEANER.register(this, reserved);
+    }
+
+    static int availableBufferBytes() {
+        return BUFFER_BUDGET.availablePermits();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : Byte.toUnsignedInt(b[0]);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        if ((current == null || currentOffset >= currentLimit) && !nextBlock()) {
+            return readUnbuffered(b, off, len);
+        }
+        int n = Math.min(len, currentLimit - currentOffset);
+        System.arraycopy(current, currentOffset, b, off, n);
+        currentOffset += n;
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        long target = Math.min(length, position + Math.max(0, n));
+        long skipped = target - position;
+        position = target;
+        if (current != null && target < currentStart + currentLimit) {
+            currentOffset = (int) (target - currentStart);
+            return skipped;
+        }
+        release();
+        while (!pending.isEmpty() && pending.peekFirst().offset + BLOCK_SIZE <= target) {
+            // the download may still be writing into this buffer, so it is neither recycled nor released yet
+            pending.pollFirst().abandon();
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : currentLimit - currentOffset;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        release();
+        for (Block block : pending) {
+            block.abandon();
+        }
+        pending.clear();
+        for (byte[] buffer : freeBuffers) {
+            reserved.release(buffer.length);
+        }
+        freeBuffers.clear();
+    }
+
+    /**
+     * Makes the range at the read position current.
+     *
+     * @return {@code false} if there is no buffer budget for it, in which case nothing is scheduled
+     */
+    private boolean nextBlock() throws IOException {
+        release();
+        if (pending.isEmpty()) {
+            nextFetch = position;
+        }
+        if (!scheduleNext()) {
+            return false;
+        }
+        Block block = pending.pollFirst();
+        int read;
+        try {
+            read = block.download.get();
+        } catch (InterruptedException e) {
+            block.abandon();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + blob.getBlobName());
+        } catch (ExecutionException e) {
+            freeBuffers.push(block.buffer);
+            throw new IOException("Failed to read " + blob.getBlobName(), e.getCause());
+        }
+        if (block.offset + read <= position) {
+            freeBuffers.push(block.buffer);
+            throw new IOException("Unexpected end of " + blob.getBlobName() + " at offset " + position);
+        }
+        current = block.buffer;
+        currentStart = block.offset;
+        currentOffset = (int) (position - block.offset);
+        currentLimit = read;
+        scheduleReadAhead();
+        return true;
+    }
+
+    /**
+     * Downloads straight into the caller's array, for when other streams hold the whole buffer budget.
+     */
+    private int readUnbuffered(byte[] b, int off, int len) throws IOException {
+        int count = (int) Math.min(len, length - position);
+        int read;
+        try {
+            read = download(position, b, off, count);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to read " + blob.getBlobName(), e);
+        }
+        if (read <= 0) {
+            throw new IOException("Unexpected end of " + blob.getBlobName() + " at offset " + position);
+        }
+        position += read;
+        return read;
+    }
+
+    private void release() {
+        if (current != null) {
+            freeBuffers.push(current);
+            current = null;
+        }
+    }
+
+    /**
+     * Makes sure the range at the read position is scheduled, waiting a little for buffer budget if needed.
+     *
+     * @return {@code false} if there was no budget for it
+     */
+    private boolean scheduleNext() throws IOException {
+        if (!pending.isEmpty()) {
+            return true;
+        }
+        int count = (int) Math.min(BLOCK_SIZE, length - nextFetch);
+        byte[] buffer = takeFreeBuffer(count);
+        if (buffer == null) {
+            try {
+                if (!BUFFER_BUDGET.tryAcquire(count)
+                        && (starved || !BUFFER_BUDGET.tryAcquire(count, BUDGET_WAIT_MILLIS, TimeUnit.MILLISECONDS))) {
+                    starved = true;
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading " + blob.getBlobName());
+            }
+            reserved.add(count);
+            buffer = new byte[count];
+        }
+        fetch(buffer, count);
+        return true;
+    }
+
+    /**
+     * Schedules further ranges as long as the depth and the buffer budget allow.
+     */
+    private void scheduleReadAhead() {
+        while (pending.size() < DEPTH && nextFetch < length) {
+            int count = (int) Math.min(BLOCK_SIZE, length - nextFetch);
+            byte[] buffer = takeFreeBuffer(count);
+            if (buffer == null) {
+                if (!BUFFER_BUDGET.tryAcquire(count)) {
+                    return;
+                }
+                reserved.add(count);
+                buffer = new byte[count];
+            }
+            fetch(buffer, count);
+        }
+    }
+
+    /**
+     * Reuses a recycled buffer large enough for the range, dropping those which are too small.
+     */
+    @CheckForNull
+    private byte[] takeFreeBuffer(int count) {
+        byte[] buffer;
+        while ((buffer = freeBuffers.poll()) != null) {
+            if (buffer.length >= count) {
+                return buffer;
+            }
+            reserved.release(buffer.length);
+        }
+        return null;
+    }
+
+    private void fetch(byte[] buffer, int count) {
+        long offset = nextFetch;
+        Block block = new Block(offset, buffer, reserved);
+        block.download = StorageExecutor.submit(() -> block.run(() -> download(offset, buffer, 0, count)));
+        pending.addLast(block);
+        nextFetch += count;
+    }
+
+    private int download(long offset, byte[] buffer, int off, int count) {
+        if (fallback != null && !useFallback) {
+            try {
+                return download(blob, offset, buffer, off, count);
+            } catch (BlobStorageException e) {
+                if (e.getStatusCode() != NOT_FOUND) {
+                    throw e;
+                }
+                useFallback = true;
+            }
+        }
+        return download(useFallback ? fallback : blob, offset, buffer, off, count);
+    }
+
+    private static int download(BlobClient client, long offset, byte[] buffer, int off, int count) {
+        BufferOutputStream out = new BufferOutputStream(buffer, off, off + count);
+        client.downloadStreamWithResponse(out, new BlobRange(offset, (long) count), null, null, false, null,
+                Context.NONE);
+        return out.size - off;
+    }
+
+    /**
+     * Bytes of {@link #BUFFER_BUDGET} held by one stream, also run by {@link #CLEANER} to release whatever an
+     * unclosed stream still holds.
+     */
+    private static final class Reservation implements Runnable {
+        private final AtomicInteger bytes = new AtomicInteger();
+
+        void add(int count) {
+            bytes.addAndGet(count);
+        }
+
+        void release(int count) {
+            bytes.addAndGet(-count);
+            BUFFER_BUDGET.release(count);
+        }
+
+        @Override
+        public void run() {
+            int count = bytes.getAndSet(0);
+            if (count > 0) {
+                BUFFER_BUDGET.release(count);
+            }
+        }
+    }
+
+    /**
+     * A range downloaded into a buffer of the stream. A block which is no longer wanted is abandoned, and its
+     * buffer is released only once its download can no longer write into it.
+     */
+    private static final class Block {
+        private static final int SCHEDULED = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int ABANDONED = 3;
+
+        private final long offset;
+        private final byte[] buffer;
+        private final Reservation reservation;
+        private final AtomicInteger state = new AtomicInteger(SCHEDULED);
+        private Future<Integer> download;
+
+        Block(long offset, byte[] buffer, Reservation reservation) {
+            this.offset = offset;
+            this.buffer = buffer;
+            this.reservation = reservation;
+        }
+
+        int run(Callable<Integer> body) throws Exception {
+            if (!state.compareAndSet(SCHEDULED, RUNNING)) {
+                return 0;
+            }
+            try {
+                return body.call();
+            } finally {
+                if (!state.compareAndSet(RUNNING, DONE)) {
+                    reservation.release(buffer.length);
+                }
+            }
+        }
+
+        void abandon() {
+            int previous = state.getAndSet(ABANDONED);
+            if (previous == RUNNING) {
+                // released by the download once it has stopped
+                download.cancel(true);
+            } else if (previous != ABANDONED) {
+                download.cancel(false);
+                reservation.release(buffer.length);
+            }
+        }
+    }
+
+    /**
+     * Writes into part of a caller-supplied buffer, failing rather than growing past its end.
+     */
+    private static final class BufferOutputStream extends OutputStream {
+        private final byte[] buffer;
+        private final int limit;
+        private int size;
+
+        BufferOutputStream(byte[] buffer, int off, int limit) {
+            this.buffer = buffer;
+            this.size = off;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size >= limit) {
+                throw new IOException("Range exceeds buffer");
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (size + len > limit) {
+                throw new IOException("Range exceeds buffer");
+            }
+            System.arraycopy(b, off, buffer, size, len);
+            size += len;
+        }
+    }
+}
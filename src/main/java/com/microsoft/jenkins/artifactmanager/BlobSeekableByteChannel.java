@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import jenkins.util.SystemProperties;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only random access to a blob of known size through ranged downloads.
+ * <p>
+ * The blob is read in aligned blocks of {@link #BLOCK_SIZE}, the last {@link #CACHED_BLOCKS} of which are kept,
+ * so that e.g. locating and reading the central directory of a zip, or the tail of a log, costs only a couple of
+ * requests no matter how large the blob is.
+ */
+final class BlobSeekableByteChannel implements SeekableByteChannel {
+    private static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    private static final int DEFAULT_CACHED_BLOCKS = 4;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    static final int BLOCK_SIZE = Math.max(1, SystemProperties.getInteger(
+            BlobSeekableByteChannel.class.getName() + ".blockSize", DEFAULT_BLOCK_SIZE));
+    static final int CACHED_BLOCKS = Math.max(1, SystemProperties.getInteger(
+            BlobSeekableByteChannel.class.getName() + ".cachedBlocks", DEFAULT_CACHED_BLOCKS));
+
+    private final long size;
+    private final int blockSize;
+    private final RangeReader reader;
+    private final Map<Long, byte[]> blocks;
+
+    private long position;
+    private boolean open = true;
+
+    BlobSeekableByteChannel(long size, RangeReader reader) {
+        this(size, BLOCK_SIZE, CACHED_BLOCKS, reader);
+    }
+
+    BlobSeekableByteChannel(long size, int blockSize, int cachedBlocks, RangeReader reader) {
+        this.size = size;
+        this.blockSize = blockSize;
+        this.reader = reader;
+        this.blocks = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > cachedBlocks;
+            }
+        };
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            long index = position / blockSize;
+            byte[] block = block(index);
+            int offset = (int) (position - index * blockSize);
+            int n = Math.min(dst.remaining(), block.length - offset);
+            if (n <= 0) {
+                throw new IOException("Short read at offset " + position);
+            }
+            dst.put(block, offset, n);
+            position += n;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long newSize) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        blocks.clear();
+    }
+
+    private byte[] block(long index) throws IOException {
+        byte[] block = blocks.get(index);
+        if (block == null) {
+            long offset = index * blockSize;
+            block = reader.read(offset, (int) Math.min(blockSize, size - offset));
+            blocks.put(index, block);
+        }
+        return block;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Downloads a range of the blob.
+     */
+    @FunctionalInterface
+    interface RangeReader {
+        byte[] read(long offset, int count) throws IOException;
+    }
+}
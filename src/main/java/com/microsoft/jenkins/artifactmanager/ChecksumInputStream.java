@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Digests the content as it is read and compares it with the expected MD5 once the end is reached, so a
+ * corrupted or truncated download fails the reader instead of going unnoticed.
+ * Nothing is verified if the stream is skipped or closed early, as the digest would not cover the whole content.
+ */
+final class ChecksumInputStream extends FilterInputStream {
+    private final MessageDigest digest = ChecksumUpload.newDigest();
+    private final byte[] expected;
+    private final String what;
+    private boolean partial;
+    private boolean verified;
+
+    /**
+     * @param what name of the content for the error message
+     */
+    ChecksumInputStream(InputStream in, byte[] expected, String what) {
+        super(in);
+        this.expected = expected.clone();
+        this.what = what;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            digest.update((byte) b);
+        } else {
+            verify();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            digest.update(b, off, n);
+        } else if (n < 0) {
+            verify();
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            partial = true;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void verify() throws IOException {
+        if (!partial && !verified) {
+            verified = true;
+            ChecksumUpload.verify(expected, digest.digest(), what);
+        }
+    }
+}
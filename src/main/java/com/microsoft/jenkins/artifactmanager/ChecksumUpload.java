@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.core.util.BinaryData;
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.models.AccessTier;
+import com.azure.storage.blob.models.BlobHttpHeaders;
+import com.azure.storage.blob.models.BlockBlobItem;
+import com.azure.storage.blob.options.BlockBlobCommitBlockListOptions;
+import com.azure.storage.blob.options.BlockBlobSimpleUploadOptions;
+import com.azure.storage.blob.specialized.BlockBlobClient;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Uploads a file as a block blob while computing its MD5 in the same pass, and stores the digest as the
+ * {@code Content-MD5} of the blob, so that readers can verify what they download.
+ * <p>
+ * The SDK only sends a digest it is given upfront, which would need a second pass over the file. Small files are
+ * digested first and then streamed from disk in one request, the second read being served by the page cache.
+ * Larger files are read block by block, each block updating the digest before it is staged, with the digest set
+ * when the block list is committed. Blocks are staged concurrently from a pool of buffers shared by all uploads of
+ * the JVM, on threads of their own, as uploads already run on {@link StorageExecutor}; an upload finding the pool
+ * exhausted stages its next block itself, so it never waits for the buffers of others.
+ */
+final class ChecksumUpload {
+    static final String ALGORITHM = "MD5";
+    static final int SINGLE_UPLOAD_SIZE = 4 * 1024 * 1024;
+    static final int BLOCK_SIZE = 8 * 1024 * 1024;
+    private static final String BLOCK_ID_FORMAT = "%010d";
+    private static final long IDLE_TIMEOUT_SECONDS = 60;
+    /** Blocks of all uploads staged concurrently, each holding a buffer of {@link #BLOCK_SIZE}. */
+    private static final int STAGING_BUFFERS = Math.max(1, SystemProperties.getInteger(
+            ChecksumUpload.class.getName() + ".stagingBuffers", 16));
+    /** Blocks of a single upload staged concurrently, so that one large file does not take the whole pool. */
+    private static final int BLOCKS_IN_FLIGHT = 4;
+
+    private static final Semaphore BUFFER_PERMITS = new Semaphore(STAGING_BUFFERS);
+    private static final Queue<byte[]> FREE_BUFFERS = new ConcurrentLinkedQueue<>();
+    private static final ExecutorService STAGING = newStagingExecutor();
+
+    /**
+     * A task only runs while it holds a buffer, so there are never more tasks than threads.
+     */
+    private static ExecutorService newStagingExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(STAGING_BUFFERS, STAGING_BUFFERS,
+                IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "AzureArtifactManager staging"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * @param headers headers of the blob, to which the digest is added
+     * @return the uploaded blob and its digest
+     */
+    static Result upload(BlobClient blobClient, File file, BlobHttpHeaders headers,
+                         @CheckForNull Map<String, String> tags, @CheckForNull AccessTier tier, Duration timeout)
+            throws IOException, InterruptedException {
+        BlockBlobClient client = blobClient.getBlockBlobClient();
+        if (file.length() <= SINGLE_UPLOAD_SIZE) {
+            MessageDigest digest = newDigest();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            byte[] md5 = digest.digest();
+            BlockBlobSimpleUploadOptions options = new BlockBlobSimpleUploadOptions(BinaryData.fromFile(file.toPath()))
+                    .setHeaders(headers.setContentMd5(md5))
+                    .setContentMd5(md5)
+                    .setTags(tags)
+                    .setTier(tier);
+            return new Result(client.uploadWithResponse(options, timeout, Context.NONE).getValue(), md5);
+        }
+
+        MessageDigest digest = newDigest();
+        List<String> blockIds = new ArrayList<>();
+        Deque<StagedBlock> staging = new ArrayDeque<>();
+        byte[] own = null;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            while (true) {
+                if (staging.size() >= BLOCKS_IN_FLIGHT) {
+                    staging.remove().await();
+                }
+                boolean pooled = BUFFER_PERMITS.tryAcquire();
+                byte[] buffer;
+                if (pooled) {
+                    byte[] free = FREE_BUFFERS.poll();
+                    buffer = free != null ? free : new byte[BLOCK_SIZE];
+                } else {
+                    own = own != null ? own : new byte[BLOCK_SIZE];
+                    buffer = own;
+                }
+                int read;
+                try {
+                    read = in.readNBytes(buffer, 0, buffer.length);
+                } catch (IOException | RuntimeException e) {
+                    release(buffer, pooled);
+                    throw e;
+                }
+                if (read == 0) {
+                    release(buffer, pooled);
+                    break;
+                }
+                digest.update(buffer, 0, read);
+                String blockId = blockId(blockIds.size());
+                blockIds.add(blockId);
+                if (pooled) {
+                    staging.add(new StagedBlock(client, blockId, buffer, read, timeout));
+                } else {
+                    stage(client, blockId, buffer, read, timeout);
+                }
+            }
+            while (!staging.isEmpty()) {
+                staging.remove().await();
+            }
+        } finally {
+            for (StagedBlock block : staging) {
+                block.abandon();
+            }
+        }
+        byte[] md5 = digest.digest();
+        BlockBlobCommitBlockListOptions options = new BlockBlobCommitBlockListOptions(blockIds)
+                .setHeaders(headers.setContentMd5(md5))
+                .setTags(tags)
+                .setTier(tier);
+        return new Result(client.commitBlockListWithResponse(options, timeout, Context.NONE).getValue(), md5);
+    }
+
+    private static void stage(BlockBlobClient client, String blockId, byte[] buffer, int length, Duration timeout) {
+        client.stageBlockWithResponse(blockId, new ByteArrayInputStream(buffer, 0, length), length, null, null,
+                timeout, Context.NONE);
+    }
+
+    private static void release(byte[] buffer, boolean pooled) {
+        if (pooled) {
+            FREE_BUFFERS.add(buffer);
+            BUFFER_PERMITS.release();
+        }
+    }
+
+    /**
+     * A block staged on {@link #STAGING} from a pooled buffer, which goes back to the pool once nothing can read
+     * it anymore: after staging, or right away if the block is abandoned before it started.
+     */
+    private static final class StagedBlock {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final byte[] buffer;
+        private final Future<?> future;
+
+        StagedBlock(BlockBlobClient client, String blockId, byte[] buffer, int length, Duration timeout) {
+            this.buffer = buffer;
+            this.future = STAGING.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    stage(client, blockId, buffer, length, timeout);
+                } finally {
+                    release(buffer, true);
+                }
+                return null;
+            });
+        }
+
+        void await() throws IOException, InterruptedException {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        void abandon() {
+            future.cancel(true);
+            if (claimed.compareAndSet(false, true)) {
+                release(buffer, true);
+            }
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Block IDs must be Base64 of equal length within a blob.
+     */
+    static String blockId(int index) {
+        return Base64.getEncoder().encodeToString(
+                String.format(BLOCK_ID_FORMAT, index).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @throws IOException if the expected digest is known and differs from the actual one
+     */
+    static void verify(@CheckForNull byte[] expected, byte[] actual, String what) throws IOException {
+        if (expected != null && !MessageDigest.isEqual(expected, actual)) {
+            throw new IOException("Checksum mismatch for " + what + ": expected MD5 "
+                    + Base64.getEncoder().encodeToString(expected) + " but got "
+                    + Base64.getEncoder().encodeToString(actual));
+        }
+    }
+
+    /**
+     * @param md5 digest of the uploaded content
+     */
+    record Result(BlockBlobItem item, byte[] md5) {
+    }
+
+    private ChecksumUpload() {
+    }
+}
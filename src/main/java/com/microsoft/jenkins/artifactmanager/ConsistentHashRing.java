@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Maps keys onto nodes so that adding or removing a node only moves the keys of that node.
+ * Each node is placed on the ring at {@link #VIRTUAL_NODES} points derived from its stable identifier, which
+ * evens out the share of keys each node receives.
+ *
+ * @param <T> type of the nodes
+ */
+final class ConsistentHashRing<T> {
+    static final int VIRTUAL_NODES = 128;
+
+    private final NavigableMap<Long, T> ring = new TreeMap<>();
+
+    /**
+     * @param nodes nodes by stable identifier; the identifiers, not the iteration order, determine placement
+     */
+    ConsistentHashRing(Map<String, T> nodes) {
+        this(nodes, VIRTUAL_NODES);
+    }
+
+    ConsistentHashRing(Map<String, T> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("At least one node is required");
+        }
+        for (Map.Entry<String, T> node : nodes.entrySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(node.getKey() + "#" + i), node.getValue());
+            }
+        }
+    }
+
+    T get(String key) {
+        Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    private static long hash(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return ByteBuffer.wrap(digest.digest(value.getBytes(StandardCharsets.UTF_8))).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
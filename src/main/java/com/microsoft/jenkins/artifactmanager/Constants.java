@@ -8,6 +8,7 @@ package com.microsoft.jenkins.artifactmanager;
 public final class Constants {
     public static final String ARTIFACTS_PATH = "artifacts/";
     public static final String STASHES_PATH = "stashes/";
+    public static final String MANIFEST_FILE_NAME = "artifacts.manifest";
     public static final String TGZ_FILE_EXTENSION = ".tgz";
     public static final String AZURE_STORAGE_DISPLAY_NAME = "Azure Blob Storage";
     public static final String BUILD_PREFIX_FORMAT = "%s/%s";
@@ -16,6 +17,10 @@ public final class Constants {
     public static final String FORWARD_SLASH = "/";
     public static final String EMPTY_STRING = "";
     public static final String DEFAULT_INCLUDE_PATTERN = "**";
+    public static final String TIER_HOT = "Hot";
+    public static final String TIER_COOL = "Cool";
+    public static final String TIER_COLD = "Cold";
+    public static final String TIER_ARCHIVE = "Archive";
 
     private Constants() {
     }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.BlobListDetails;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.models.ListBlobsOptions;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Directory operations for storage accounts with a hierarchical namespace (Azure Data Lake Storage Gen2).
+ * <p>
+ * On such accounts directories are real entries, so a whole build can be deleted with one recursive delete on
+ * the DFS endpoint instead of one request per blob, and the directory status of a path is a single properties
+ * request. The requests go through the pipeline of the blob client, which signs them with the account key.
+ * Blob copies have no directory counterpart and stay per blob.
+ */
+final class HierarchicalNamespace {
+    private static final Logger LOGGER = Logger.getLogger(HierarchicalNamespace.class.getName());
+    private static final int OK = 200;
+    private static final int NOT_FOUND = 404;
+    private static final int MAX_ACCOUNTS = 64;
+    private static final String FOLDER_METADATA = "hdi_isfolder";
+    private static final String CONTINUATION = "x-ms-continuation";
+
+    private static final Map<String, Boolean> ENABLED = Utils.lruMap(MAX_ACCOUNTS);
+
+    /**
+     * Checks once per account whether it has a hierarchical namespace.
+     * Accounts whose type cannot be determined, e.g. because the credentials lack the permission, are treated as
+     * flat.
+     */
+    static boolean isEnabled(BlobContainerClient container) {
+        String account = container.getAccountUrl();
+        Boolean enabled;
+        synchronized (ENABLED) {
+            enabled = ENABLED.get(account);
+        }
+        if (enabled == null) {
+            try {
+                enabled = container.getAccountInfo(null).isHierarchicalNamespaceEnabled();
+            } catch (BlobStorageException e) {
+                LOGGER.log(Level.FINE, "Cannot determine the type of " + account + ", assuming a flat namespace", e);
+                enabled = false;
+            }
+            synchronized (ENABLED) {
+                ENABLED.put(account, enabled);
+            }
+        }
+        return enabled;
+    }
+
+    /**
+     * Options listing the given prefix. Hierarchical accounts list directories as empty blobs alongside the files,
+     * so their metadata is requested there for {@link #isDirectoryEntry} to tell them apart.
+     */
+    static ListBlobsOptions listOptions(BlobContainerClient container, String prefix) {
+        ListBlobsOptions options = new ListBlobsOptions().setPrefix(prefix);
+        if (isEnabled(container)) {
+            options.setDetails(new BlobListDetails().setRetrieveMetadata(true));
+        }
+        return options;
+    }
+
+    /**
+     * @return whether the listed item is the entry of a directory of a hierarchical account
+     */
+    static boolean isDirectoryEntry(BlobItem item) {
+        Map<String, String> metadata = item.getMetadata();
+        return !Boolean.TRUE.equals(item.isPrefix()) && metadata != null
+                && Boolean.parseBoolean(metadata.get(FOLDER_METADATA));
+    }
+
+    /**
+     * @param path directory path without leading or trailing {@code /}
+     * @return whether the path is a directory; {@code false} if it is a file or does not exist
+     */
+    static boolean isDirectory(BlobContainerClient container, String path) {
+        try {
+            Map<String, String> metadata = container.getBlobClient(path).getProperties().getMetadata();
+            return metadata != null && Boolean.parseBoolean(metadata.get(FOLDER_METADATA));
+        } catch (BlobStorageException e) {
+            if (e.getStatusCode() == NOT_FOUND) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes a directory and everything below it.
+     * The service deletes recursively in batches and asks for the remainder with a continuation token when a
+     * directory is large or has access control lists to check.
+     *
+     * @param path directory path without leading or trailing {@code /}
+     * @return whether the directory existed
+     * @throws IOException if the DFS endpoint cannot be derived from the blob endpoint or the delete fails
+     */
+    static boolean deleteDirectory(BlobContainerClient container, String path) throws IOException {
+        String url = dfsUrl(container.getBlobContainerUrl());
+        if (url == null) {
+            throw new IOException("Cannot derive the DFS endpoint of " + container.getBlobContainerUrl());
+        }
+        String base = url + "/" + encodePath(path) + "?recursive=true";
+        String continuation = null;
+        do {
+            String requestUrl = continuation == null
+                    ? base
+                    : base + "&continuation=" + URLEncoder.encode(continuation, StandardCharsets.UTF_8);
+            try (HttpResponse response = container.getHttpPipeline()
+                    .sendSync(new HttpRequest(HttpMethod.DELETE, requestUrl), Context.NONE)) {
+                int status = response.getStatusCode();
+                if (status == NOT_FOUND && continuation == null) {
+                    return false;
+                }
+                if (status != OK) {
+                    throw new IOException("Failed to delete directory " + path + ": HTTP " + status + " "
+                            + response.getBodyAsString().block());
+                }
+                continuation = response.getHeaderValue(CONTINUATION);
+            }
+        } while (continuation != null && !continuation.isEmpty());
+        LOGGER.log(Level.FINE, "Deleted directory {0} recursively", path);
+        return true;
+    }
+
+    /**
+     * Maps {@code https://account.blob.core.windows.net/container} to
+     * {@code https://account.dfs.core.windows.net/container}.
+     *
+     * @return the DFS URL, or {@code null} for endpoints not following the naming scheme, e.g. custom domains
+     */
+    @CheckForNull
+    static String dfsUrl(String blobUrl) {
+        String host = URI.create(blobUrl).getHost();
+        if (host == null || !host.contains(".blob.")) {
+            return null;
+        }
+        int hostStart = blobUrl.indexOf(host);
+        return blobUrl.substring(0, hostStart) + host.replaceFirst("\\.blob\\.", ".dfs.")
+                + blobUrl.substring(hostStart + host.length());
+    }
+
+    private static String encodePath(String path) {
+        StringBuilder encoded = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (encoded.length() > 0) {
+                encoded.append('/');
+            }
+            encoded.append(URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20"));
+        }
+        return encoded.toString();
+    }
+
+    private HierarchicalNamespace() {
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable index of the files below a listing root.
+ * Paths are {@code /}-separated and relative to the root; they are kept sorted so that the entries of any
+ * directory form a contiguous range which can be found by binary search.
+ * <p>
+ * Large builds are listed with hundreds of thousands of entries, so paths are front-coded: they are stored as
+ * UTF-8 in blocks of {@link #BLOCK_SIZE}, each entry holding only the suffix it does not share with its
+ * predecessor. Lengths, timestamps and content MD5s live in parallel primitive arrays, so an index is a handful of
+ * objects regardless of its size.
+ */
+final class ListingIndex {
+    private static final int BLOCK_SIZE = 16;
+    private static final int VARINT_PAYLOAD = 0x7F;
+    private static final int VARINT_MORE = 0x80;
+    private static final int VARINT_SHIFT = 7;
+    private static final int MD5_LENGTH = 16;
+
+    /** The character immediately following {@code /}, used to skip past all entries of a subdirectory. */
+    private static final char AFTER_SLASH = '/' + 1;
+
+    private final int size;
+    private final int maxPathLength;
+    /** For each entry: varint shared prefix length, varint suffix length, suffix bytes. */
+    private final byte[] data;
+    /** Offset in {@link #data} of the first entry of each block; first entries share nothing. */
+    private final int[] blockOffsets;
+    private final long[] lengths;
+    private final long[] lastModified;
+    /** {@link #MD5_LENGTH} bytes per entry, all zero where unknown, or {@code null} if none is known. */
+    @CheckForNull
+    private final byte[] md5s;
+
+    private ListingIndex(int size, int maxPathLength, byte[] data, int[] blockOffsets, long[] lengths,
+                         long[] lastModified, @CheckForNull byte[] md5s) {
+        this.size = size;
+        this.maxPathLength = maxPathLength;
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.lengths = lengths;
+        this.lastModified = lastModified;
+        this.md5s = md5s;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Approximate heap footprint in bytes, excluding object headers.
+     */
+    long footprint() {
+        return data.length + (long) Integer.BYTES * blockOffsets.length
+                + (long) Long.BYTES * (lengths.length + lastModified.length) + (md5s == null ? 0 : md5s.length);
+    }
+
+    /**
+     * @return the position of the given file, or {@code -1} if it is not known
+     */
+    int indexOf(String path) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int i = lowerBound(key);
+        return i < size && Arrays.equals(decode(i), key) ? i : -1;
+    }
+
+    String path(int index) {
+        return new String(decode(index), StandardCharsets.UTF_8);
+    }
+
+    long length(int index) {
+        return lengths[index];
+    }
+
+    long lastModified(int index) {
+        return lastModified[index];
+    }
+
+    /**
+     * @return the MD5 of the content, or {@code null} if it is not known
+     */
+    @CheckForNull
+    byte[] md5(int index) {
+        if (md5s == null) {
+            return null;
+        }
+        byte[] md5 = Arrays.copyOfRange(md5s, index * MD5_LENGTH, (index + 1) * MD5_LENGTH);
+        return Arrays.equals(md5, new byte[MD5_LENGTH]) ? null : md5;
+    }
+
+    /**
+     * @param dir relative directory path without trailing slash, or {@code ""} for the root
+     * @return whether any file lies below the given directory, which is not itself a file
+     */
+    boolean isDirectory(String dir) {
+        if (dir.isEmpty()) {
+            return size > 0;
+        }
+        String prefix = dir + "/";
+        int i = lowerBound(prefix.getBytes(StandardCharsets.UTF_8));
+        return i < size && path(i).startsWith(prefix) && indexOf(dir) < 0;
+    }
+
+    /**
+     * @param dir relative directory path without trailing slash, or {@code ""} for the root
+     * @return simple names of the files and subdirectories directly inside the given directory
+     */
+    List<String> children(String dir) {
+        String prefix = dir.isEmpty() ? "" : dir + "/";
+        Set<String> names = new LinkedHashSet<>();
+        int i = lowerBound(prefix.getBytes(StandardCharsets.UTF_8));
+        while (i < size) {
+            String path = path(i);
+            if (!path.startsWith(prefix)) {
+                break;
+            }
+            String rest = path.substring(prefix.length());
+            int slash = rest.indexOf('/');
+            if (slash < 0) {
+                names.add(rest);
+                i++;
+            } else {
+                String name = rest.substring(0, slash);
+                names.add(name);
+                i = lowerBound((prefix + name + AFTER_SLASH).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * @return the position of the first entry not less than the given key in unsigned byte order
+     */
+    private int lowerBound(byte[] key) {
+        // find the first block starting at or after the key; the answer is in the block before it, or its start
+        int lo = 0;
+        int hi = blockOffsets.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareFirstOfBlock(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == 0) {
+            return 0;
+        }
+        int start = (lo - 1) * BLOCK_SIZE;
+        int end = Math.min(lo * BLOCK_SIZE, size);
+        Decoder decoder = new Decoder(start);
+        for (int i = start; i < end; i++) {
+            decoder.next();
+            if (Arrays.compareUnsigned(decoder.buffer, 0, decoder.length, key, 0, key.length) >= 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private int compareFirstOfBlock(int block, byte[] key) {
+        Decoder decoder = new Decoder(block * BLOCK_SIZE);
+        decoder.next();
+        return Arrays.compareUnsigned(decoder.buffer, 0, decoder.length, key, 0, key.length);
+    }
+
+    private byte[] decode(int index) {
+        Decoder decoder = new Decoder(index - index % BLOCK_SIZE);
+        for (int i = index - index % BLOCK_SIZE; i <= index; i++) {
+            decoder.next();
+        }
+        return Arrays.copyOf(decoder.buffer, decoder.length);
+    }
+
+    /**
+     * Sequentially decodes the entries of one block.
+     */
+    private final class Decoder {
+        private final byte[] buffer = new byte[maxPathLength];
+        private int length;
+        private int position;
+
+        Decoder(int blockStart) {
+            this.position = blockOffsets[blockStart / BLOCK_SIZE];
+        }
+
+        void next() {
+            int shared = readVarint();
+            int suffix = readVarint();
+            System.arraycopy(data, position, buffer, shared, suffix);
+            position += suffix;
+            length = shared + suffix;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (b & VARINT_PAYLOAD) << shift;
+                shift += VARINT_SHIFT;
+            } while ((b & VARINT_MORE) != 0);
+            return value;
+        }
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static final class Builder {
+        private final List<Entry> entries = new ArrayList<>();
+
+        Builder add(String path, long length, long lastModified) {
+            return add(path, length, lastModified, null);
+        }
+
+        /**
+         * @param md5 MD5 of the content, if known
+         */
+        Builder add(String path, long length, long lastModified, @CheckForNull byte[] md5) {
+            entries.add(new Entry(path.getBytes(StandardCharsets.UTF_8), length, lastModified,
+                    md5 != null && md5.length == MD5_LENGTH ? md5 : null));
+            return this;
+        }
+
+        ListingIndex build() {
+            entries.sort((a, b) -> Arrays.compareUnsigned(a.path(), b.path()));
+            int size = entries.size();
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int[] blockOffsets = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+            long[] lengths = new long[size];
+            long[] lastModified = new long[size];
+            byte[] md5s = null;
+            int maxPathLength = 0;
+            byte[] previous = new byte[0];
+            for (int i = 0; i < size; i++) {
+                Entry entry = entries.get(i);
+                byte[] path = entry.path();
+                int shared = 0;
+                if (i % BLOCK_SIZE == 0) {
+                    blockOffsets[i / BLOCK_SIZE] = data.size();
+                } else {
+                    int max = Math.min(previous.length, path.length);
+                    while (shared < max && previous[shared] == path[shared]) {
+                        shared++;
+                    }
+                }
+                writeVarint(data, shared);
+                writeVarint(data, path.length - shared);
+                data.write(path, shared, path.length - shared);
+                lengths[i] = entry.length();
+                lastModified[i] = entry.lastModified();
+                if (entry.md5() != null) {
+                    if (md5s == null) {
+                        md5s = new byte[size * MD5_LENGTH];
+                    }
+                    System.arraycopy(entry.md5(), 0, md5s, i * MD5_LENGTH, MD5_LENGTH);
+                }
+                maxPathLength = Math.max(maxPathLength, path.length);
+                previous = path;
+            }
+            return new ListingIndex(size, maxPathLength, data.toByteArray(), blockOffsets, lengths, lastModified,
+                    md5s);
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, int value) {
+            int remaining = value;
+            while ((remaining & ~VARINT_PAYLOAD) != 0) {
+                out.write((remaining & VARINT_PAYLOAD) | VARINT_MORE);
+                remaining >>>= VARINT_SHIFT;
+            }
+            out.write(remaining);
+        }
+
+        private record Entry(byte[] path, long length, long lastModified, @CheckForNull byte[] md5) {
+        }
+    }
+}
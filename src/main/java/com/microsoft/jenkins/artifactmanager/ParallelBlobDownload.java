@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobClientBuilder;
+import com.azure.storage.blob.models.BlobStorageException;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.ProxyConfiguration;
+import hudson.remoting.VirtualChannel;
+import io.jenkins.plugins.azuresdk.HttpClientRetriever;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Downloads blobs straight from storage into a directory, typically on an agent, so that the controller only
+ * signs a short-lived read-only URL for each of them and stays out of the data path.
+ * <p>
+ * Files fitting into a single range are downloaded concurrently on {@link StorageExecutor}, and larger ones one
+ * after the other, each by ranges read ahead concurrently with {@link BlobReadAheadInputStream}, which also runs on
+ * the executor and so must not be used from its tasks. Files are digested while they are written, so that they are
+ * checked against the MD5 stored with the blob without being read again.
+ */
+final class ParallelBlobDownload extends MasterToSlaveFileCallable<Integer> {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private static final int NOT_FOUND = 404;
+
+    private final ProxyConfiguration proxy;
+    private final List<Item> items;
+
+    ParallelBlobDownload(ProxyConfiguration proxy, List<Item> items) {
+        this.proxy = proxy;
+        this.items = items;
+    }
+
+    /**
+     * @param name path of the file below the target directory
+     * @param blob blob to read
+     * @param fallback blob to read instead if {@code blob} is not found, e.g. the primary copy of a blob on the
+     *     secondary endpoint, or {@code null}
+     * @param md5 digest stored with the blob, or {@code null} if there is none
+     */
+    static Item item(String name, BlobClient blob, @CheckForNull BlobClient fallback, long length, long lastModified,
+                     @CheckForNull byte[] md5) {
+        return new Item(name, signedUrl(blob), fallback == null ? null : signedUrl(fallback), length, lastModified,
+                ArtifactManifest.Entry.base64(md5));
+    }
+
+    private static String signedUrl(BlobClient blobClient) {
+        return blobClient.getBlobUrl() + "?" + blobClient.generateSas(Utils.generateBlobPolicy());
+    }
+
+    @Override
+    public Integer invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        Path base = f.toPath().toAbsolutePath().normalize();
+        List<Item> small = new ArrayList<>();
+        List<Item> large = new ArrayList<>();
+        for (Item item : items) {
+            (item.length() <= BlobReadAheadInputStream.BLOCK_SIZE ? small : large).add(item);
+        }
+        StorageExecutor.forEach(small, item -> download(item, base));
+        for (Item item : large) {
+            download(item, base);
+        }
+        return items.size();
+    }
+
+    private void download(Item item, Path base) throws IOException {
+        Path file = base.resolve(item.name()).normalize();
+        if (!file.startsWith(base)) {
+            throw new IOException("Refusing to download " + item.name() + " outside of " + base);
+        }
+        Files.createDirectories(file.getParent());
+        MessageDigest digest = ChecksumUpload.newDigest();
+        if (item.length() > BlobReadAheadInputStream.BLOCK_SIZE) {
+            try (InputStream in = new BlobReadAheadInputStream(client(item.url()),
+                    item.fallbackUrl() == null ? null : client(item.fallbackUrl()), item.length());
+                 OutputStream out = new DigestOutputStream(Files.newOutputStream(file), digest)) {
+                in.transferTo(out);
+            }
+        } else {
+            try {
+                downloadWhole(item.url(), file, digest);
+            } catch (BlobStorageException e) {
+                if (e.getStatusCode() != NOT_FOUND || item.fallbackUrl() == null) {
+                    throw e;
+                }
+                digest.reset();
+                downloadWhole(item.fallbackUrl(), file, digest);
+            }
+        }
+        try {
+            ChecksumUpload.verify(item.md5() == null ? null : Base64.getDecoder().decode(item.md5()),
+                    digest.digest(), item.name());
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(item.lastModified()));
+    }
+
+    private void downloadWhole(String url, Path file, MessageDigest digest) throws IOException {
+        try (OutputStream out = new DigestOutputStream(Files.newOutputStream(file), digest)) {
+            client(url).downloadStream(out);
+        }
+    }
+
+    private BlobClient client(String url) {
+        return new BlobClientBuilder()
+                .endpoint(url)
+                .httpClient(HttpClientRetriever.get(proxy))
+                .buildClient();
+    }
+
+    /**
+     * One blob to download, see {@link #item}.
+     *
+     * @param md5 Base64 of the MD5 of the content, or {@code null} if unknown
+     */
+    record Item(String name, String url, @CheckForNull String fallbackUrl, long length, long lastModified,
+                @CheckForNull String md5) implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.core.http.rest.PagedResponse;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.ListBlobsOptions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Lists every blob below a prefix using several concurrent listings instead of one sequential one.
+ * <p>
+ * A single flat listing page is tried first, which covers most builds with one request. Only if there are more
+ * pages, sub-prefixes are discovered with hierarchy listings, a few levels deep until there are enough of them
+ * to keep {@link StorageExecutor} busy, and each is then listed flat on its own.
+ */
+final class ParallelBlobLister {
+    private static final int SHARDS_PER_THREAD = 4;
+    private static final int MAX_SPLIT_DEPTH = 3;
+
+    /**
+     * Calls the action for every blob (not virtual directory, nor directory of a hierarchical namespace) below the
+     * given prefix.
+     * The action is called concurrently from several threads and in no particular order.
+     *
+     * @param prefix {@code /}-terminated prefix
+     * @return the number of blobs seen
+     */
+    static int forEach(BlobContainerClient container, String prefix, Consumer<BlobItem> action)
+            throws IOException, InterruptedException {
+        AtomicInteger count = new AtomicInteger();
+        Consumer<BlobItem> counting = item -> {
+            action.accept(item);
+            count.incrementAndGet();
+        };
+
+        ListBlobsOptions flat = HierarchicalNamespace.listOptions(container, prefix);
+        Iterator<PagedResponse<BlobItem>> pages = container.listBlobs(flat, null).iterableByPage().iterator();
+        PagedResponse<BlobItem> first = pages.hasNext() ? pages.next() : null;
+        if (first == null || first.getContinuationToken() == null) {
+            if (first != null) {
+                for (BlobItem item : first.getValue()) {
+                    if (!HierarchicalNamespace.isDirectoryEntry(item)) {
+                        counting.accept(item);
+                    }
+                }
+            }
+            return count.get();
+        }
+
+        List<String> shards = List.of(prefix);
+        int target = StorageExecutor.parallelism() * SHARDS_PER_THREAD;
+        for (int depth = 0; depth < MAX_SPLIT_DEPTH && !shards.isEmpty() && shards.size() < target; depth++) {
+            List<String> next = Collections.synchronizedList(new ArrayList<>());
+            StorageExecutor.forEach(shards, shard -> {
+                ListBlobsOptions options = HierarchicalNamespace.listOptions(container, shard);
+                for (BlobItem item : container.listBlobsByHierarchy(Constants.FORWARD_SLASH, options, null)) {
+                    if (Boolean.TRUE.equals(item.isPrefix())) {
+                        next.add(item.getName());
+                    } else if (!HierarchicalNamespace.isDirectoryEntry(item)) {
+                        counting.accept(item);
+                    }
+                }
+            });
+            shards = next;
+        }
+
+        StorageExecutor.forEach(shards, shard -> {
+            for (BlobItem item : container.listBlobs(HierarchicalNamespace.listOptions(container, shard), null)) {
+                if (!HierarchicalNamespace.isDirectoryEntry(item)) {
+                    counting.accept(item);
+                }
+            }
+        });
+        return count.get();
+    }
+
+    private ParallelBlobLister() {
+    }
+}
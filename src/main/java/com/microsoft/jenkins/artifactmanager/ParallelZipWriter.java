@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import jenkins.util.SystemProperties;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Writes blobs into a zip in order while downloading the following ones concurrently.
+ * <p>
+ * Every file is split into chunks of at most {@link #CHUNK_SIZE}, which are fetched on {@link StorageExecutor}
+ * as long as no more than {@link #MAX_BUFFERED_BYTES} are buffered ahead of the writer. Small files thus overlap
+ * their request latency, and large ones are streamed without being held in memory in full.
+ * Entries are written with the same zip implementation and file name encoding as core's directory browser.
+ */
+final class ParallelZipWriter {
+    private static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final long DEFAULT_MAX_BUFFERED_BYTES = 32 * 1024 * 1024;
+
+    static final int CHUNK_SIZE = Math.max(1, SystemProperties.getInteger(
+            ParallelZipWriter.class.getName() + ".chunkSize", DEFAULT_CHUNK_SIZE));
+    static final long MAX_BUFFERED_BYTES = SystemProperties.getLong(
+            ParallelZipWriter.class.getName() + ".maxBufferedBytes", DEFAULT_MAX_BUFFERED_BYTES);
+
+    private final List<Entry> entries;
+    private final int chunkSize;
+    private final long maxBufferedBytes;
+    private final Deque<Chunk> window = new ArrayDeque<>();
+
+    private long buffered;
+    /** Position of the next chunk to schedule. */
+    private int nextEntry;
+    private long nextOffset;
+
+    ParallelZipWriter(List<Entry> entries) {
+        this(entries, CHUNK_SIZE, MAX_BUFFERED_BYTES);
+    }
+
+    ParallelZipWriter(List<Entry> entries, int chunkSize, long maxBufferedBytes) {
+        this.entries = entries;
+        this.chunkSize = chunkSize;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Writes every entry, in list order, to the given stream.
+     * Must not be called from a task running on {@link StorageExecutor}.
+     */
+    void write(ZipOutputStream zos) throws IOException {
+        try {
+            schedule();
+            for (Entry entry : entries) {
+                ZipEntry zipEntry = new ZipEntry(entry.name());
+                zipEntry.setTime(entry.lastModified());
+                zos.putNextEntry(zipEntry);
+                for (long offset = 0; offset < entry.length(); offset += chunkSize) {
+                    Chunk chunk = window.pollFirst();
+                    byte[] data = await(chunk, entry);
+                    buffered -= chunk.count();
+                    schedule();
+                    zos.write(data, 0, data.length);
+                }
+                zos.closeEntry();
+            }
+        } finally {
+            for (Chunk chunk : window) {
+                chunk.data().cancel(true);
+            }
+            window.clear();
+        }
+    }
+
+    private void schedule() {
+        while (nextEntry < entries.size() && (window.isEmpty() || buffered < maxBufferedBytes)) {
+            Entry entry = entries.get(nextEntry);
+            if (nextOffset >= entry.length()) {
+                nextEntry++;
+                nextOffset = 0;
+                continue;
+            }
+            long offset = nextOffset;
+            int count = (int) Math.min(chunkSize, entry.length() - offset);
+            window.addLast(new Chunk(StorageExecutor.submit(() -> entry.reader().read(offset, count)), count));
+            buffered += count;
+            nextOffset += count;
+        }
+    }
+
+    private static byte[] await(Chunk chunk, Entry entry) throws IOException {
+        try {
+            byte[] data = chunk.data().get();
+            if (data.length != chunk.count()) {
+                throw new IOException("Unexpected length of " + entry.name() + ", it may have changed");
+            }
+            return data;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while zipping " + entry.name());
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read " + entry.name(), e.getCause());
+        }
+    }
+
+    /**
+     * One file to add.
+     *
+     * @param name full entry name inside the zip
+     * @param length size in bytes, as listed
+     * @param lastModified modification time in milliseconds since the epoch
+     * @param reader downloads a range of the file
+     */
+    record Entry(String name, long length, long lastModified, BlobSeekableByteChannel.RangeReader reader) {
+    }
+
+    private record Chunk(Future<byte[]> data, int count) {
+    }
+}
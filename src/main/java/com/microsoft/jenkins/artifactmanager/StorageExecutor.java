@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for license information.
+ */
+
+package com.microsoft.jenkins.artifactmanager;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executor shared by all blocking storage operations which fan out, such as listing, deleting or copying
+ * every blob below a prefix, uploading the files of an archive step, or reading ahead of an artifact download.
+ * <p>
+ * Tasks run on virtual threads where the JVM has them, so that many tasks waiting for storage cost no platform
+ * threads, and on a fixed pool of daemon threads otherwise. Either way, at most {@link #parallelism()} tasks run
+ * at once, and they never run on the common pool which other plugins and parallel streams share.
+ * The class is also used on agents, where the limit is that of the agent JVM.
+ */
+final class StorageExecutor {
+    private static final Logger LOGGER = Logger.getLogger(StorageExecutor.class.getName());
+    private static final int DEFAULT_PARALLELISM = 128;
+    private static final long IDLE_TIMEOUT_SECONDS = 60;
+
+    private static final int PARALLELISM = Math.max(1,
+            SystemProperties.getInteger(StorageExecutor.class.getName() + ".parallelism", DEFAULT_PARALLELISM));
+
+    private static final ExecutorService EXECUTOR = newExecutor();
+    private static final Semaphore PERMITS = new Semaphore(PARALLELISM);
+
+    /**
+     * Virtual threads need Java 21, while the plugin still runs on Java 17.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.log(Level.FINE, "Virtual threads are not available, using platform threads", e);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM,
+                    IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "AzureArtifactManager storage"));
+            // a large limit should not keep as many idle threads around
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    static int parallelism() {
+        return PARALLELISM;
+    }
+
+    /**
+     * Submits a single task, e.g. a read-ahead download; the caller must not be running on the executor itself.
+     */
+    static <T> Future<T> submit(Callable<T> task) {
+        return EXECUTOR.submit(() -> {
+            PERMITS.acquire();
+            try {
+                return task.call();
+            } finally {
+                PERMITS.release();
+            }
+        });
+    }
+
+    /**
+     * Runs the task for every item on the shared executor and waits for all of them.
+     * Must not be called from a task already running on the executor, which could wait for permits held by its
+     * callers.
+     *
+     * @throws IOException wrapping the first failure; the remaining tasks are cancelled
+     */
+    static <T> void forEach(Collection<T> items, Task<T> task) throws IOException, InterruptedException {
+        List<Future<?>> futures = new ArrayList<>(items.size());
+        for (T item : items) {
+            futures.add(submit(() -> {
+                task.run(item);
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Task<T> {
+        void run(T item) throws Exception;
+    }
+
+    private StorageExecutor() {
+    }
+}
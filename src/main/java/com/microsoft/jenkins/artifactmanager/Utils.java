@@ -13,24 +13,66 @@ import com.azure.storage.blob.models.BlobStorageException;
 import com.azure.storage.blob.sas.BlobSasPermission;
 import com.azure.storage.blob.sas.BlobServiceSasSignatureValues;
 import com.azure.storage.common.StorageSharedKeyCredential;
+import com.azure.storage.common.policy.RequestRetryOptions;
+import com.azure.storage.common.policy.RetryPolicyType;
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.microsoftopentechnologies.windowsazurestorage.beans.StorageAccountInfo;
 import com.microsoftopentechnologies.windowsazurestorage.helper.AzureStorageAccount;
 import com.microsoftopentechnologies.windowsazurestorage.helper.Constants;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.ProxyConfiguration;
 import hudson.Util;
 import hudson.model.Item;
+import hudson.security.ACL;
 import hudson.util.DescribableList;
 import io.jenkins.plugins.azuresdk.HttpClientRetriever;
 import jenkins.model.ArtifactManagerConfiguration;
 import jenkins.model.ArtifactManagerFactory;
 import jenkins.model.ArtifactManagerFactoryDescriptor;
+import jenkins.model.Jenkins;
 
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 
 public final class Utils {
     private static final String PREFIX_PATTERN = "^[a-z0-9A-Z]{1,30}/?$";
     private static final int CONFLICT = 409;
+    private static final int MAX_SERVICE_CLIENTS = 16;
+    private static final int MAX_SIGNED_URLS = 10000;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final Duration SAS_RENEWAL_MARGIN = Duration.ofMinutes(15);
+    private static final String SECONDARY_SUFFIX = "-secondary";
+
+    private static final String KEY_FINGERPRINT_ALGORITHM = "SHA-256";
+
+    private static final Map<ServiceClientKey, BlobServiceClient> SERVICE_CLIENTS = lruMap(MAX_SERVICE_CLIENTS);
+
+    private static final Map<SignedUrlKey, SignedUrl> SIGNED_URLS = lruMap(MAX_SIGNED_URLS);
+
+    /**
+     * Returns an access-ordered map which drops its least recently used entry once it holds more than the given
+     * number of entries. Callers synchronize on the map.
+     */
+    static <K, V> Map<K, V> lruMap(int maxSize) {
+        return new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
 
     public static AzureArtifactConfig getArtifactConfig() {
         ArtifactManagerConfiguration artifactManagerConfiguration = ArtifactManagerConfiguration.get();
@@ -82,12 +124,41 @@ public final class Utils {
 
     // TODO methods below should be removed after refactoring windows storage plugin's codes
     public static StorageAccountInfo getStorageAccount(Item item) {
-        AzureArtifactConfig config = getArtifactConfig();
+        return getStorageAccount(item, null);
+    }
+
+    /**
+     * @param storageCredentialId credentials of the storage account, or {@code null} for the configured default
+     */
+    public static StorageAccountInfo getStorageAccount(Item item, @CheckForNull String storageCredentialId) {
+        String credentialId = storageCredentialId != null
+                ? storageCredentialId
+                : getArtifactConfig().getStorageCredentialId();
         AzureStorageAccount.StorageAccountCredential accountCredentials =
-                AzureStorageAccount.getStorageAccountCredential(item, config.getStorageCredentialId());
+                AzureStorageAccount.getStorageAccountCredential(item, credentialId);
         return AzureStorageAccount.convertToStorageAccountInfo(accountCredentials);
     }
 
+    /**
+     * Looks up the storage account in the context of Jenkins itself, for background work done on behalf of no
+     * particular item, so that only credentials defined at the top level are used.
+     *
+     * @param storageCredentialId credentials of the storage account, or {@code null} for the configured default
+     */
+    public static StorageAccountInfo getGlobalStorageAccount(@CheckForNull String storageCredentialId) {
+        String credentialId = storageCredentialId != null
+                ? storageCredentialId
+                : getArtifactConfig().getStorageCredentialId();
+        AzureStorageAccount credentials = CredentialsMatchers.firstOrNull(
+                CredentialsProvider.lookupCredentialsInItemGroup(AzureStorageAccount.class, Jenkins.get(),
+                        ACL.SYSTEM2, Collections.emptyList()),
+                CredentialsMatchers.withId(Util.fixNull(credentialId)));
+        if (credentials == null) {
+            throw new IllegalStateException("No storage account credentials " + credentialId + " defined globally");
+        }
+        return AzureStorageAccount.convertToStorageAccountInfo(credentials.getStorageCred());
+    }
+
     public static String getBlobUrl(
             StorageAccountInfo storageAccount,
             String containerName,
@@ -124,6 +195,38 @@ public final class Utils {
         return blob.generateSas(generateBlobPolicy());
     }
 
+    /**
+     * Returns a read-only signed URL for the blob, reusing a previously signed one until
+     * {@link #SAS_RENEWAL_MARGIN} before it expires, so that pages linking many artifacts do not sign every link
+     * on every view.
+     */
+    public static String getSignedBlobUrl(
+            StorageAccountInfo storageAccount,
+            String containerName,
+            String blobName) {
+        SignedUrlKey key = new SignedUrlKey(storageAccount.getStorageAccName(),
+                fingerprint(storageAccount.getStorageAccountKey()), storageAccount.getCdnEndPointURL(), containerName,
+                blobName);
+        OffsetDateTime now = OffsetDateTime.now();
+        synchronized (SIGNED_URLS) {
+            SignedUrl cached = SIGNED_URLS.get(key);
+            if (cached != null && cached.expiry().minus(SAS_RENEWAL_MARGIN).isAfter(now)) {
+                return cached.url();
+            }
+        }
+        BlobClient blob = getCloudStorageAccount(storageAccount)
+                .getBlobContainerClient(containerName)
+                .getBlobClient(blobName);
+        OffsetDateTime expiry = generateExpiryDate();
+        String sas = blob.generateSas(new BlobServiceSasSignatureValues(expiry, new BlobSasPermission()
+                .setReadPermission(true)));
+        String url = getBlobUrl(storageAccount, containerName, blobName) + "?" + sas;
+        synchronized (SIGNED_URLS) {
+            SIGNED_URLS.put(key, new SignedUrl(url, expiry));
+        }
+        return url;
+    }
+
     public static BlobServiceSasSignatureValues generateBlobPolicy() {
         return new BlobServiceSasSignatureValues(generateExpiryDate(), new BlobSasPermission()
                 .setReadPermission(true));
@@ -157,14 +260,141 @@ public final class Utils {
         return container;
     }
 
+    /**
+     * Returns a client for the storage account, shared by all callers using the same account, key, endpoint and
+     * proxy configuration.
+     */
     public static BlobServiceClient getCloudStorageAccount(
             final StorageAccountInfo storageAccount) {
-        return new BlobServiceClientBuilder()
-                .credential(new StorageSharedKeyCredential(storageAccount.getStorageAccName(),
-                        storageAccount.getStorageAccountKey()))
-                .httpClient(HttpClientRetriever.get())
-                .endpoint(storageAccount.getBlobEndPointURL())
-                .buildClient();
+        return getServiceClient(storageAccount, storageAccount.getBlobEndPointURL(), null);
+    }
+
+    /**
+     * Returns the container on the read-only secondary endpoint of an RA-GRS storage account.
+     * Reads failing there with a transient error are retried against the primary endpoint, but callers still need
+     * to fall back to {@link #getBlobContainerReference} themselves when a blob has not been replicated yet.
+     *
+     * @return the container, or {@code null} if the secondary endpoint cannot be derived from the primary one,
+     *     e.g. for custom domains
+     */
+    @CheckForNull
+    public static BlobContainerClient getSecondaryBlobContainerReference(StorageAccountInfo storageAccount,
+                                                                         String containerName) {
+        String primary = storageAccount.getBlobEndPointURL();
+        String secondary = getSecondaryEndpoint(primary, storageAccount.getStorageAccName());
+        if (secondary == null) {
+            return null;
+        }
+        return getServiceClient(storageAccount, secondary, URI.create(primary).getHost())
+                .getBlobContainerClient(containerName);
+    }
+
+    /**
+     * @return a copy of the account using its secondary endpoint, or {@code null} if that cannot be derived
+     */
+    @CheckForNull
+    public static StorageAccountInfo getSecondaryStorageAccount(StorageAccountInfo storageAccount) {
+        String secondary = getSecondaryEndpoint(storageAccount.getBlobEndPointURL(),
+                storageAccount.getStorageAccName());
+        if (secondary == null) {
+            return null;
+        }
+        return new StorageAccountInfo(storageAccount.getStorageAccName(), storageAccount.getStorageAccountKey(),
+                secondary, storageAccount.getCdnEndPointURL());
+    }
+
+    /**
+     * Derives the secondary endpoint by appending {@code -secondary} to the account name in the host, e.g.
+     * {@code https://account-secondary.blob.core.windows.net/} for {@code https://account.blob.core.windows.net/}.
+     */
+    @CheckForNull
+    static String getSecondaryEndpoint(@CheckForNull String primaryEndpoint, String accountName) {
+        if (primaryEndpoint == null) {
+            return null;
+        }
+        URI uri;
+        try {
+            uri = URI.create(primaryEndpoint);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String host = uri.getHost();
+        if (host == null || !host.toLowerCase(Locale.ROOT).startsWith(accountName.toLowerCase(Locale.ROOT) + ".")) {
+            return null;
+        }
+        String secondaryHost = host.substring(0, accountName.length()) + SECONDARY_SUFFIX
+                + host.substring(accountName.length());
+        int hostStart = primaryEndpoint.indexOf(host);
+        return primaryEndpoint.substring(0, hostStart) + secondaryHost
+                + primaryEndpoint.substring(hostStart + host.length());
+    }
+
+    /**
+     * @param retryHost host to alternate with when retrying reads, or {@code null}
+     */
+    private static BlobServiceClient getServiceClient(StorageAccountInfo storageAccount, String endpoint,
+                                                      @CheckForNull String retryHost) {
+        String accountName = storageAccount.getStorageAccName();
+        String accountKey = storageAccount.getStorageAccountKey();
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        ServiceClientKey key = new ServiceClientKey(accountName, fingerprint(accountKey), endpoint, retryHost,
+                jenkins == null ? null : jenkins.getProxy());
+        synchronized (SERVICE_CLIENTS) {
+            BlobServiceClient client = SERVICE_CLIENTS.get(key);
+            if (client != null) {
+                return client;
+            }
+            // the key was rotated, the credentials replaced or the proxy reconfigured since the cached client was
+            // built; requests in flight keep using it
+            if (SERVICE_CLIENTS.keySet().removeIf(k -> k.accountName().equals(accountName)
+                    && k.endpoint().equals(endpoint) && Objects.equals(k.retryHost(), retryHost))) {
+                synchronized (SIGNED_URLS) {
+                    SIGNED_URLS.keySet().removeIf(k -> k.accountName().equals(accountName)
+                            && !k.keyFingerprint().equals(key.keyFingerprint()));
+                }
+            }
+            BlobServiceClientBuilder builder = new BlobServiceClientBuilder()
+                    .credential(new StorageSharedKeyCredential(accountName, accountKey))
+                    .httpClient(HttpClientRetriever.get())
+                    .endpoint(endpoint)
+                    .addPolicy(AccountThrottle.forEndpoint(endpoint));
+            if (retryHost != null) {
+                builder.retryOptions(new RequestRetryOptions(RetryPolicyType.EXPONENTIAL, null, (Integer) null,
+                        null, null, retryHost));
+            }
+            client = builder.buildClient();
+            SERVICE_CLIENTS.put(key, client);
+            return client;
+        }
+    }
+
+    /**
+     * Identifies an account key in cache keys, which should not hold the key itself as they may end up in logs or
+     * heap dumps.
+     */
+    static String fingerprint(String accountKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance(KEY_FINGERPRINT_ALGORITHM)
+                    .digest(accountKey.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param proxy proxy configuration the HTTP client was built with, compared by identity as a saved
+     *     configuration replaces the instance
+     */
+    private record ServiceClientKey(String accountName, String keyFingerprint, String endpoint,
+                                    @CheckForNull String retryHost, @CheckForNull ProxyConfiguration proxy) {
+    }
+
+    private record SignedUrlKey(String accountName, String keyFingerprint, String cdnEndpoint, String containerName,
+                                String blobName) {
+    }
+
+    private record SignedUrl(String url, OffsetDateTime expiry) {
     }
 
     private Utils() {
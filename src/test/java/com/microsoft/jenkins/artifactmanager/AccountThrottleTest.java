@@ -0,0 +1,58 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.core.http.HttpPipelineNextSyncPolicy;
+import com.azure.core.http.HttpResponse;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AccountThrottleTest {
+
+    @Test
+    void additiveIncreaseMultiplicativeDecrease() {
+        AccountThrottle throttle = new AccountThrottle(4, 8);
+        send(throttle, 503);
+        assertEquals(2, throttle.getLimit());
+        send(throttle, 429);
+        assertEquals(1, throttle.getLimit());
+        send(throttle, 503);
+        assertEquals(1, throttle.getLimit());
+        assertEquals(3, throttle.getThrottledCount());
+
+        send(throttle, 200);
+        assertEquals(2, throttle.getLimit());
+        send(throttle, 404);
+        send(throttle, 201);
+        assertEquals(2, throttle.getLimit());
+        send(throttle, 200);
+        assertEquals(3, throttle.getLimit());
+        send(throttle, 500);
+        assertEquals(3, throttle.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            send(throttle, 200);
+        }
+        assertEquals(8, throttle.getLimit());
+    }
+
+    @Test
+    void agentsShareTheLimit() {
+        AccountThrottle throttle = new AccountThrottle(16, 32);
+        assertEquals(16, throttle.beginAgentUpload());
+        assertEquals(8, throttle.beginAgentUpload());
+        throttle.endAgentUpload(0);
+        assertEquals(16, throttle.getLimit());
+        throttle.endAgentUpload(5);
+        assertEquals(8, throttle.getLimit());
+        assertEquals(5, throttle.getThrottledCount());
+    }
+
+    private static void send(AccountThrottle throttle, int status) {
+        HttpResponse response = Mockito.mock(HttpResponse.class);
+        Mockito.when(response.getStatusCode()).thenReturn(status);
+        HttpPipelineNextSyncPolicy next = Mockito.mock(HttpPipelineNextSyncPolicy.class);
+        Mockito.when(next.processSync()).thenReturn(response);
+        throttle.processSync(null, next);
+    }
+}
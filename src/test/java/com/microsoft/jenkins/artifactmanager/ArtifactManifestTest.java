@@ -0,0 +1,82 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ArtifactManifestTest {
+
+    @Test
+    void roundTrip() throws IOException {
+        ArtifactManifest manifest = new ArtifactManifest();
+        manifest.addAll(List.of(
+                new ArtifactManifest.Entry("target/app.jar", 1024, 1000, "application/java-archive"),
+                new ArtifactManifest.Entry("README", 3, 2000, null)));
+        // archiving the same path again replaces the entry
+        manifest.addAll(List.of(new ArtifactManifest.Entry("README", 4, 3000, "text/plain")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+        ArtifactManifest read = ArtifactManifest.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(2, read.size());
+        assertEquals(new ArtifactManifest.Entry("README", 4, 3000, "text/plain"), read.get("README"));
+        assertNull(read.get("missing"));
+
+        ListingIndex index = read.toIndex();
+        assertEquals(1024, index.length(index.indexOf("target/app.jar")));
+        assertEquals(List.of("README", "target"), index.children(""));
+    }
+
+    @Test
+    void checksums() throws IOException {
+        byte[] md5 = ChecksumUpload.newDigest().digest(new byte[] {1, 2, 3});
+        ArtifactManifest manifest = new ArtifactManifest();
+        manifest.addAll(List.of(
+                new ArtifactManifest.Entry("a", 3, 1000, null, ArtifactManifest.Entry.base64(md5)),
+                new ArtifactManifest.Entry("b", 3, 1000, null)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+        ListingIndex index = ArtifactManifest.read(new ByteArrayInputStream(out.toByteArray())).toIndex();
+
+        assertArrayEquals(md5, index.md5(index.indexOf("a")));
+        assertNull(index.md5(index.indexOf("b")));
+    }
+
+    @Test
+    void readsManifestWithoutChecksums() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DataOutputStream data = new DataOutputStream(new GZIPOutputStream(out))) {
+            data.writeInt(0x415A414D);
+            data.writeInt(1);
+            data.writeInt(1);
+            data.writeUTF("README");
+            data.writeLong(3);
+            data.writeLong(2000);
+            data.writeUTF("text/plain");
+        }
+        ArtifactManifest read = ArtifactManifest.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(new ArtifactManifest.Entry("README", 3, 2000, "text/plain"), read.get("README"));
+    }
+
+    @Test
+    void rejectsUnknownContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        }
+        assertThrows(IOException.class, () -> ArtifactManifest.read(new ByteArrayInputStream(out.toByteArray())));
+    }
+}
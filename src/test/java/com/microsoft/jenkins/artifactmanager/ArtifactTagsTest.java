@@ -0,0 +1,37 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArtifactTagsTest {
+
+    @Test
+    void sanitize() {
+        assertEquals("folder/job-1.x_y", ArtifactTags.sanitize("folder/job-1.x_y"));
+        assertEquals("job _my_ name", ArtifactTags.sanitize("job (my) name"));
+        assertEquals("it_s _t_", ArtifactTags.sanitize("it's \u00e9t\u00e9"));
+        assertEquals(256, ArtifactTags.sanitize("x".repeat(300)).length());
+    }
+
+    @Test
+    void valuesSortAsStrings() {
+        assertTrue(ArtifactTags.buildNumber(9).compareTo(ArtifactTags.buildNumber(10)) < 0);
+        assertEquals("0000000042", ArtifactTags.buildNumber(42));
+        assertEquals("2026-10-18T12:34:56Z", ArtifactTags.timestamp(Instant.parse("2026-10-18T12:34:56.789Z")));
+    }
+
+    @Test
+    void query() {
+        String query = new ArtifactTags.Query()
+                .container("jenkins")
+                .equal(ArtifactTags.JOB, "a'b")
+                .condition(ArtifactTags.BUILD, ">=", ArtifactTags.buildNumber(0))
+                .toString();
+        assertEquals("@container = 'jenkins' AND \"jenkins_job\" = 'a''b' AND \"jenkins_build\" >= '0000000000'",
+                query);
+    }
+}
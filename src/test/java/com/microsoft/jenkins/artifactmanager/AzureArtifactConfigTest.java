@@ -6,7 +6,10 @@ import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 
 class AzureArtifactConfigTest {
@@ -52,4 +55,27 @@ class AzureArtifactConfigTest {
         // Negative case : only 2 characters
         assertNotEquals(FormValidation.ok(), descriptor.doCheckContainer("ab"));
     }
+
+    @Test
+    void tierByAge() {
+        AzureArtifactConfig config = new AzureArtifactConfig();
+        assertFalse(config.isTieringEnabled());
+
+        config.setCoolAfterDays(30);
+        config.setArchiveAfterDays(180);
+        assertTrue(config.isTieringEnabled());
+        assertEquals(30, config.getMinTieringAgeDays());
+
+        assertNull(config.tierFor(29, false));
+        assertEquals(Constants.TIER_COOL, config.tierFor(30, false));
+        assertEquals(Constants.TIER_COOL, config.tierFor(179, false));
+        assertEquals(Constants.TIER_ARCHIVE, config.tierFor(180, false));
+
+        // builds kept forever stay online
+        assertEquals(Constants.TIER_COOL, config.tierFor(365, true));
+
+        config.setColdAfterDays(90);
+        assertEquals(Constants.TIER_COLD, config.tierFor(90, false));
+        assertEquals(Constants.TIER_COLD, config.tierFor(365, true));
+    }
 }
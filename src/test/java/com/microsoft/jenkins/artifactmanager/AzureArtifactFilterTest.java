@@ -0,0 +1,105 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AzureArtifactFilterTest {
+
+    @Test
+    void parseRange() {
+        assertEquals(new AzureArtifactFilter.ByteRange(0, 99), AzureArtifactFilter.parseRange("bytes=0-99", 1000));
+        assertEquals(new AzureArtifactFilter.ByteRange(900, 999), AzureArtifactFilter.parseRange("bytes=900-", 1000));
+        assertEquals(new AzureArtifactFilter.ByteRange(900, 999),
+                AzureArtifactFilter.parseRange("bytes=900-5000", 1000));
+        assertEquals(new AzureArtifactFilter.ByteRange(800, 999), AzureArtifactFilter.parseRange("bytes=-200", 1000));
+        assertEquals(new AzureArtifactFilter.ByteRange(0, 999), AzureArtifactFilter.parseRange("bytes=-2000", 1000));
+        assertEquals(AzureArtifactFilter.ByteRange.UNSATISFIABLE, AzureArtifactFilter.parseRange("bytes=1000-", 1000));
+        assertEquals(AzureArtifactFilter.ByteRange.UNSATISFIABLE, AzureArtifactFilter.parseRange("bytes=-0", 1000));
+        assertNull(AzureArtifactFilter.parseRange(null, 1000));
+        assertNull(AzureArtifactFilter.parseRange("bytes=0-1,5-6", 1000));
+        assertNull(AzureArtifactFilter.parseRange("bytes=5-3", 1000));
+        assertNull(AzureArtifactFilter.parseRange("bytes=a-b", 1000));
+        assertNull(AzureArtifactFilter.parseRange("items=0-1", 1000));
+    }
+
+    @Test
+    void notModified() {
+        String etag = AzureArtifactFilter.etag(1000, 1_600_000_000_123L, null);
+        assertTrue(AzureArtifactFilter.notModified(etag, -1, etag, 1_600_000_000_123L));
+        assertTrue(AzureArtifactFilter.notModified("\"x\", " + etag.substring(2), -1, etag, 1_600_000_000_123L));
+        assertFalse(AzureArtifactFilter.notModified("\"x\"", 1_600_000_001_000L, etag, 1_600_000_000_123L));
+        assertTrue(AzureArtifactFilter.notModified(null, 1_600_000_000_000L, etag, 1_600_000_000_123L));
+        assertFalse(AzureArtifactFilter.notModified(null, 1_599_999_999_000L, etag, 1_600_000_000_123L));
+        assertFalse(AzureArtifactFilter.notModified(null, -1, etag, 1_600_000_000_123L));
+
+        String strong = AzureArtifactFilter.etag(1000, 1_600_000_000_123L, new byte[] {0x0f, (byte) 0xa0});
+        assertEquals("\"0fa0\"", strong);
+        assertTrue(AzureArtifactFilter.notModified(strong, -1, strong, 1_600_000_000_123L));
+        assertTrue(AzureArtifactFilter.notModified("W/" + strong, -1, strong, 1_600_000_000_123L));
+        assertFalse(AzureArtifactFilter.notModified(etag, -1, strong, 1_600_000_000_123L));
+    }
+
+    @Test
+    void rangeAppliesOnlyToMatchingStrongTag() {
+        String weak = AzureArtifactFilter.etag(1000, 1_600_000_000_123L, null);
+        assertTrue(AzureArtifactFilter.rangeApplies(null, weak));
+        assertFalse(AzureArtifactFilter.rangeApplies(weak, weak));
+        assertFalse(AzureArtifactFilter.rangeApplies("Sun, 13 Sep 2020 12:26:40 GMT", weak));
+        String strong = AzureArtifactFilter.etag(1000, 1_600_000_000_123L, new byte[] {1, 2});
+        assertTrue(AzureArtifactFilter.rangeApplies(strong, strong));
+        assertFalse(AzureArtifactFilter.rangeApplies("W/" + strong, strong));
+        assertTrue(AzureArtifactFilter.rangeApplies("\"abc\"", "\"abc\""));
+        assertFalse(AzureArtifactFilter.rangeApplies("\"abd\"", "\"abc\""));
+    }
+
+    @Test
+    void parseArtifactUrl() {
+        assertEquals(new AzureArtifactFilter.ArtifactUrl("folder/my job", "12", "dir/a b.txt", false),
+                AzureArtifactFilter.ArtifactUrl.parse("/view/all/job/folder/job/my%20job/12/artifact/dir/a%20b.txt"));
+        assertEquals(new AzureArtifactFilter.ArtifactUrl("p", "lastSuccessfulBuild", "out.zip", false),
+                AzureArtifactFilter.ArtifactUrl.parse("/job/p/lastSuccessfulBuild/artifact/out.zip"));
+        assertNull(AzureArtifactFilter.ArtifactUrl.parse("/job/p/12/artifact/dir/"));
+        assertNull(AzureArtifactFilter.ArtifactUrl.parse("/job/p/12/artifact/"));
+        assertEquals(new AzureArtifactFilter.ArtifactUrl("p", "12", "", true),
+                AzureArtifactFilter.ArtifactUrl.parse("/job/p/12/artifact/*zip*/archive.zip"));
+        assertEquals(new AzureArtifactFilter.ArtifactUrl("p", "12", "dir/sub", true),
+                AzureArtifactFilter.ArtifactUrl.parse("/job/p/12/artifact/dir/sub/*zip*/sub.zip"));
+        assertNull(AzureArtifactFilter.ArtifactUrl.parse("/job/p/12/artifact/*zip*/"));
+        assertNull(AzureArtifactFilter.ArtifactUrl.parse("/job/p/12/artifact/**/*.xml/*zip*/archive.zip"));
+        assertNull(AzureArtifactFilter.ArtifactUrl.parse("/job/p/12/artifact/a.txt/*view*"));
+        assertNull(AzureArtifactFilter.ArtifactUrl.parse("/job/p/12/artifact/a/../b.txt"));
+        assertNull(AzureArtifactFilter.ArtifactUrl.parse("/job/p/12/artifact/a%2F..%2Fb.txt"));
+        assertNull(AzureArtifactFilter.ArtifactUrl.parse("/job/p/12/ws/a.txt"));
+        assertNull(AzureArtifactFilter.ArtifactUrl.parse("/me/my-views/view/all/job/p/12/artifact/a.txt"));
+    }
+
+    @Test
+    void copyVerifiesWholeContentBeforeItsLastBytes() throws IOException {
+        byte[] content = new byte[200_000];
+        Arrays.fill(content, (byte) 7);
+        byte[] md5 = ChecksumUpload.newDigest().digest(content);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AzureArtifactFilter.copy(new ChecksumInputStream(new ByteArrayInputStream(content), md5, "a"), out,
+                content.length, true);
+        assertArrayEquals(content, out.toByteArray());
+
+        byte[] corrupted = content.clone();
+        corrupted[100] = 8;
+        ByteArrayOutputStream partial = new ByteArrayOutputStream();
+        assertThrows(IOException.class, () -> AzureArtifactFilter.copy(
+                new ChecksumInputStream(new ByteArrayInputStream(corrupted), md5, "a"), partial, content.length, true));
+        assertTrue(partial.size() < content.length);
+    }
+}
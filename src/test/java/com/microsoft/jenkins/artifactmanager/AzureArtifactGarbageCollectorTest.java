@@ -0,0 +1,80 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AzureArtifactGarbageCollectorTest {
+
+    @Test
+    void parseBuildKey() {
+        assertEquals(new AzureArtifactGarbageCollector.BuildKey("job", 12),
+                AzureArtifactGarbageCollector.BuildKey.parse("job/12/artifacts/target/app.jar"));
+        assertEquals(new AzureArtifactGarbageCollector.BuildKey("folder/job", 3),
+                AzureArtifactGarbageCollector.BuildKey.parse("folder/job/3/stashes/sources.tgz"));
+        assertEquals(new AzureArtifactGarbageCollector.BuildKey("folder/7/job", 1),
+                AzureArtifactGarbageCollector.BuildKey.parse("folder/7/job/1/artifacts.manifest"));
+        assertEquals(new AzureArtifactGarbageCollector.BuildKey("job", 5),
+                AzureArtifactGarbageCollector.BuildKey.parse("job/5/artifacts/out/9/artifacts/x"));
+        assertEquals("folder/job/3/", new AzureArtifactGarbageCollector.BuildKey("folder/job", 3).path());
+    }
+
+    @Test
+    void ignoresForeignBlobs() {
+        assertNull(AzureArtifactGarbageCollector.BuildKey.parse("job/12/other/file"));
+        assertNull(AzureArtifactGarbageCollector.BuildKey.parse("job/last/artifacts/file"));
+        assertNull(AzureArtifactGarbageCollector.BuildKey.parse("job/12/artifacts.manifest.bak"));
+        assertNull(AzureArtifactGarbageCollector.BuildKey.parse("12/artifacts/file"));
+    }
+
+    @Test
+    void attributesKeysOfMultibranchJobs() {
+        Job<?, ?> branch = job("project/feature%2Flogin", 4);
+        AzureArtifactGarbageCollector.Owners owners = new AzureArtifactGarbageCollector.Owners(
+                List.of(item("project"), branch));
+
+        assertEquals(AzureArtifactGarbageCollector.Owner.BUILD,
+                owners.ownerOf(new AzureArtifactGarbageCollector.BuildKey("project/feature/login", 4)));
+        assertEquals(AzureArtifactGarbageCollector.Owner.NONE,
+                owners.ownerOf(new AzureArtifactGarbageCollector.BuildKey("project/feature/login", 3)));
+        assertEquals(AzureArtifactGarbageCollector.Owner.NONE,
+                owners.ownerOf(new AzureArtifactGarbageCollector.BuildKey("project/removed", 1)));
+    }
+
+    @Test
+    void refusesKeysNotAttributableToOneJob() {
+        AzureArtifactGarbageCollector.Owners owners = new AzureArtifactGarbageCollector.Owners(List.of(
+                job("a/b", 1), job("a%2Fb", 2), item("folder"), item("job/5/artifacts/out"), item("job/50")));
+
+        assertEquals(AzureArtifactGarbageCollector.Owner.AMBIGUOUS,
+                owners.ownerOf(new AzureArtifactGarbageCollector.BuildKey("a/b", 3)));
+        assertEquals(AzureArtifactGarbageCollector.Owner.AMBIGUOUS,
+                owners.ownerOf(new AzureArtifactGarbageCollector.BuildKey("folder", 1)));
+        assertEquals(AzureArtifactGarbageCollector.Owner.AMBIGUOUS,
+                owners.ownerOf(new AzureArtifactGarbageCollector.BuildKey("job", 5)));
+        assertEquals(AzureArtifactGarbageCollector.Owner.NONE,
+                owners.ownerOf(new AzureArtifactGarbageCollector.BuildKey("job", 6)));
+    }
+
+    private static Item item(String fullName) {
+        Item item = mock(Item.class);
+        when(item.getFullName()).thenReturn(fullName);
+        return item;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static Job<?, ?> job(String fullName, int build) {
+        Job job = mock(Job.class);
+        when(job.getFullName()).thenReturn(fullName);
+        when(job.getBuildByNumber(build)).thenReturn(mock(Run.class));
+        return job;
+    }
+}
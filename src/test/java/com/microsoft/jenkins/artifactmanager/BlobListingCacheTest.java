@@ -0,0 +1,75 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BlobListingCacheTest {
+
+    @Test
+    void closestAncestorIsReturned() {
+        BlobListingCache<List<String>> cache = new BlobListingCache<>(100, List::size);
+        cache.put("c", "job/1/artifacts/", List.of("a", "sub/b"));
+
+        Map.Entry<String, List<String>> hit = cache.getClosest("c", "job/1/artifacts/sub/");
+        assertNotNull(hit);
+        assertEquals("job/1/artifacts/", hit.getKey());
+        assertNull(cache.getClosest("other", "job/1/artifacts/sub/"));
+        assertNull(cache.getClosest("c", "job/2/artifacts/"));
+
+        assertEquals(1, cache.getHitCount());
+        // a miss is left to the caller, which may still find a finer entry
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    void countsOneLookupOnce() {
+        BlobListingCache<List<String>> cache = new BlobListingCache<>(100, List::size);
+        cache.put("c", "job/1/artifacts/sub/", List.of("b"));
+
+        assertNull(cache.getClosest("c", "job/1/artifacts/"));
+        assertNotNull(cache.get("c", "job/1/artifacts/sub/"));
+        assertNull(cache.get("c", "job/1/artifacts/other/"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedByWeight() {
+        BlobListingCache<List<String>> cache = new BlobListingCache<>(4, List::size);
+        cache.put("c", "job/1/", List.of("a", "b"));
+        cache.put("c", "job/2/", List.of("a", "b"));
+        // touch job/1 so that job/2 becomes the eldest entry
+        assertNotNull(cache.getClosest("c", "job/1/"));
+        cache.put("c", "job/3/", List.of("a"));
+
+        assertNotNull(cache.getClosest("c", "job/1/"));
+        assertNull(cache.getClosest("c", "job/2/"));
+        assertNotNull(cache.getClosest("c", "job/3/"));
+        assertEquals(3, cache.getWeight());
+        assertEquals(1, cache.getEvictionCount());
+
+        // entries heavier than the cache itself are never stored
+        cache.put("c", "job/4/", List.of("a", "b", "c", "d", "e"));
+        assertNull(cache.getClosest("c", "job/4/"));
+    }
+
+    @Test
+    void invalidateDropsEverythingBelowPrefix() {
+        BlobListingCache<List<String>> cache = new BlobListingCache<>(100, List::size);
+        cache.put("c", "job/1/artifacts/", List.of("a"));
+        cache.put("c", "job/1/artifacts/sub/", List.of("b"));
+        cache.put("c", "job/10/artifacts/", List.of("c"));
+        cache.put("d", "job/1/artifacts/", List.of("d"));
+
+        assertEquals(2, cache.invalidate("c", "job/1/"));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getWeight());
+    }
+}
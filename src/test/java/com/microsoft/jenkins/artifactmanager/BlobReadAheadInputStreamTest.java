@@ -0,0 +1,87 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.models.BlobRange;
+import com.azure.storage.blob.models.BlobStorageException;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BlobReadAheadInputStreamTest {
+
+    private final byte[] content = new byte[1000];
+
+    private BlobClient blob() {
+        return blob(content);
+    }
+
+    private static BlobClient blob(byte[] content) {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        BlobClient blob = Mockito.mock(BlobClient.class);
+        Mockito.when(blob.downloadStreamWithResponse(ArgumentMatchers.any(OutputStream.class),
+                ArgumentMatchers.any(BlobRange.class), ArgumentMatchers.any(), ArgumentMatchers.any(),
+                ArgumentMatchers.anyBoolean(), ArgumentMatchers.any(), ArgumentMatchers.any(Context.class)))
+                .thenAnswer(invocation -> {
+                    OutputStream out = invocation.getArgument(0);
+                    BlobRange range = invocation.getArgument(1);
+                    out.write(content, (int) range.getOffset(), range.getCount().intValue());
+                    return null;
+                });
+        return blob;
+    }
+
+    @Test
+    void readsAndSkipsWithinSmallBlob() throws IOException {
+        int available = BlobReadAheadInputStream.availableBufferBytes();
+        try (InputStream in = new BlobReadAheadInputStream(blob(), null, content.length)) {
+            assertArrayEquals(Arrays.copyOfRange(content, 0, 100), in.readNBytes(100));
+            assertEquals(800, in.skip(800));
+            assertArrayEquals(Arrays.copyOfRange(content, 900, 1000), in.readAllBytes());
+            assertEquals(-1, in.read());
+            // the buffer is sized to the blob rather than to a whole block
+            assertEquals(available - content.length, BlobReadAheadInputStream.availableBufferBytes());
+        }
+        assertEquals(available, BlobReadAheadInputStream.availableBufferBytes());
+    }
+
+    @Test
+    void skippedBlocksAreReleasedOnceTheirDownloadStops() throws Exception {
+        int available = BlobReadAheadInputStream.availableBufferBytes();
+        int block = BlobReadAheadInputStream.BLOCK_SIZE;
+        byte[] large = new byte[2 * block + 10];
+        try (InputStream in = new BlobReadAheadInputStream(blob(large), null, large.length)) {
+            assertEquals(large[0], (byte) in.read());
+            // drops the blocks read ahead, which may still be downloading
+            assertEquals(2L * block - 1, in.skip(2L * block - 1));
+            assertArrayEquals(Arrays.copyOfRange(large, 2 * block, large.length), in.readAllBytes());
+        }
+        for (int i = 0; i < 100 && BlobReadAheadInputStream.availableBufferBytes() != available; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(available, BlobReadAheadInputStream.availableBufferBytes());
+    }
+
+    @Test
+    void fallsBackWhenNotFound() throws IOException {
+        BlobStorageException notFound = Mockito.mock(BlobStorageException.class);
+        Mockito.when(notFound.getStatusCode()).thenReturn(404);
+        BlobClient secondary = Mockito.mock(BlobClient.class);
+        Mockito.when(secondary.downloadStreamWithResponse(ArgumentMatchers.any(), ArgumentMatchers.any(),
+                ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.anyBoolean(), ArgumentMatchers.any(),
+                ArgumentMatchers.any())).thenThrow(notFound);
+        try (InputStream in = new BlobReadAheadInputStream(secondary, blob(), content.length)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+}
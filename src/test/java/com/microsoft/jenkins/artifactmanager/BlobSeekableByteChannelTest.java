@@ -0,0 +1,62 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BlobSeekableByteChannelTest {
+
+    private final byte[] content = new byte[1000];
+    private final List<Long> requests = new ArrayList<>();
+
+    private BlobSeekableByteChannel channel(int blockSize, int cachedBlocks) {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        return new BlobSeekableByteChannel(content.length, blockSize, cachedBlocks, (offset, count) -> {
+            requests.add(offset);
+            return Arrays.copyOfRange(content, (int) offset, (int) offset + count);
+        });
+    }
+
+    @Test
+    void readsTailWithoutDownloadingTheRest() throws IOException {
+        BlobSeekableByteChannel channel = channel(100, 2);
+        ByteBuffer buffer = ByteBuffer.allocate(150);
+        channel.position(850);
+        assertEquals(150, channel.read(buffer));
+        assertArrayEquals(Arrays.copyOfRange(content, 850, 1000), buffer.array());
+        assertEquals(List.of(800L, 900L), requests);
+        assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    void cachesRecentBlocks() throws IOException {
+        BlobSeekableByteChannel channel = channel(100, 2);
+        channel.position(10).read(ByteBuffer.allocate(10));
+        channel.position(510).read(ByteBuffer.allocate(10));
+        channel.position(20).read(ByteBuffer.allocate(10));
+        assertEquals(List.of(0L, 500L), requests);
+
+        channel.position(310).read(ByteBuffer.allocate(10));
+        // block 500 was least recently used and got evicted
+        channel.position(520).read(ByteBuffer.allocate(10));
+        assertEquals(List.of(0L, 500L, 300L, 500L), requests);
+    }
+
+    @Test
+    void isReadOnly() {
+        BlobSeekableByteChannel channel = channel(100, 2);
+        assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+        assertThrows(NonWritableChannelException.class, () -> channel.truncate(0));
+    }
+}
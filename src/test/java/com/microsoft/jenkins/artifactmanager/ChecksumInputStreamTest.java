@@ -0,0 +1,41 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChecksumInputStreamTest {
+    private static final byte[] CONTENT = "hello artifacts".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void passesMatchingContent() throws IOException {
+        byte[] md5 = ChecksumUpload.newDigest().digest(CONTENT);
+        try (InputStream in = new ChecksumInputStream(new ByteArrayInputStream(CONTENT), md5, "a")) {
+            assertArrayEquals(CONTENT, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void failsOnCorruptContent() {
+        byte[] md5 = ChecksumUpload.newDigest().digest(CONTENT);
+        byte[] corrupt = CONTENT.clone();
+        corrupt[0] ^= 1;
+        InputStream in = new ChecksumInputStream(new ByteArrayInputStream(corrupt), md5, "a");
+        assertThrows(IOException.class, in::readAllBytes);
+    }
+
+    @Test
+    void skipsVerificationOfPartialReads() throws IOException {
+        byte[] md5 = ChecksumUpload.newDigest().digest(CONTENT);
+        try (InputStream in = new ChecksumInputStream(new ByteArrayInputStream(CONTENT), md5, "a")) {
+            in.skipNBytes(2);
+            in.readAllBytes();
+        }
+    }
+}
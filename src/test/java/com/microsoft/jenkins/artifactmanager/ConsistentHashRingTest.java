@@ -0,0 +1,59 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHashRingTest {
+
+    private static final int JOBS = 10000;
+
+    private static Map<String, String> nodes(String... ids) {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (String id : ids) {
+            nodes.put(id, id);
+        }
+        return nodes;
+    }
+
+    @Test
+    void placementDoesNotDependOnOrder() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes("a", "b", "c"));
+        ConsistentHashRing<String> reordered = new ConsistentHashRing<>(nodes("c", "a", "b"));
+        for (int i = 0; i < JOBS; i++) {
+            assertEquals(ring.get("folder/job-" + i), reordered.get("folder/job-" + i));
+        }
+    }
+
+    @Test
+    void spreadsJobsEvenly() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes("a", "b", "c"));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < JOBS; i++) {
+            counts.merge(ring.get("folder/job-" + i), 1, Integer::sum);
+        }
+        for (int count : counts.values()) {
+            assertTrue(count > JOBS / 3 / 2 && count < JOBS / 3 * 2, counts.toString());
+        }
+    }
+
+    @Test
+    void addingANodeOnlyMovesJobsToIt() {
+        ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes("a", "b", "c"));
+        ConsistentHashRing<String> after = new ConsistentHashRing<>(nodes("a", "b", "c", "d"));
+        int moved = 0;
+        for (int i = 0; i < JOBS; i++) {
+            String job = "folder/job-" + i;
+            if (!before.get(job).equals(after.get(job))) {
+                assertEquals("d", after.get(job));
+                moved++;
+            }
+        }
+        assertTrue(moved > JOBS / 4 / 2 && moved < JOBS / 4 * 2, String.valueOf(moved));
+    }
+}
@@ -0,0 +1,19 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HierarchicalNamespaceTest {
+
+    @Test
+    void dfsUrl() {
+        assertEquals("https://account.dfs.core.windows.net/container",
+                HierarchicalNamespace.dfsUrl("https://account.blob.core.windows.net/container"));
+        assertEquals("https://account.dfs.core.usgovcloudapi.net/jenkins",
+                HierarchicalNamespace.dfsUrl("https://account.blob.core.usgovcloudapi.net/jenkins"));
+        assertNull(HierarchicalNamespace.dfsUrl("https://artifacts.example.com/container"));
+        assertNull(HierarchicalNamespace.dfsUrl("http://127.0.0.1:10000/account/container"));
+    }
+}
@@ -0,0 +1,79 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ListingIndexTest {
+
+    private ListingIndex index;
+
+    @BeforeEach
+    void beforeEach() {
+        index = ListingIndex.builder()
+                .add("test.txt", 4, 100)
+                .add("sub/sub.txt", 3, 200)
+                .add("sub/deeper/a.txt", 1, 300)
+                .add("sub-file", 2, 400)
+                .add("subdir/b.txt", 5, 500)
+                .build();
+    }
+
+    @Test
+    void lookup() {
+        int i = index.indexOf("sub/sub.txt");
+        assertTrue(i >= 0);
+        assertEquals(3, index.length(i));
+        assertEquals(200, index.lastModified(i));
+        assertEquals(-1, index.indexOf("sub"));
+        assertEquals(-1, index.indexOf("missing"));
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    void isDirectory() {
+        assertTrue(index.isDirectory(""));
+        assertTrue(index.isDirectory("sub"));
+        assertTrue(index.isDirectory("sub/deeper"));
+        assertFalse(index.isDirectory("sub/sub.txt"));
+        assertFalse(index.isDirectory("su"));
+        assertFalse(index.isDirectory("missing"));
+    }
+
+    @Test
+    void children() {
+        assertEquals(List.of("sub-file", "sub", "subdir", "test.txt"), index.children(""));
+        assertEquals(List.of("deeper", "sub.txt"), index.children("sub"));
+        assertEquals(List.of("a.txt"), index.children("sub/deeper"));
+        assertEquals(List.of(), index.children("missing"));
+    }
+
+    @Test
+    void manyEntriesAcrossBlocks() {
+        ListingIndex.Builder builder = ListingIndex.builder();
+        for (int i = 999; i >= 0; i--) {
+            builder.add(String.format("dir%d/file-%03d.txt", i % 7, i), i, i * 10L);
+        }
+        builder.add("\u00e9t\u00e9/\u65e5\u672c.txt", 42, 0);
+        ListingIndex big = builder.build();
+
+        assertEquals(1001, big.size());
+        for (int i = 0; i < 1000; i++) {
+            int index = big.indexOf(String.format("dir%d/file-%03d.txt", i % 7, i));
+            assertTrue(index >= 0);
+            assertEquals(i, big.length(index));
+            assertEquals(i * 10L, big.lastModified(index));
+        }
+        assertEquals(-1, big.indexOf("dir0/file-001.txt"));
+        assertEquals(List.of("dir0", "dir1", "dir2", "dir3", "dir4", "dir5", "dir6", "\u00e9t\u00e9"),
+                big.children(""));
+        assertEquals(143, big.children("dir0").size());
+        assertEquals(42, big.length(big.indexOf("\u00e9t\u00e9/\u65e5\u672c.txt")));
+        assertTrue(big.isDirectory("\u00e9t\u00e9"));
+    }
+}
@@ -0,0 +1,43 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import com.azure.core.http.rest.PagedIterable;
+import com.azure.core.http.rest.PagedResponse;
+import com.azure.core.util.IterableStream;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.BlobStorageException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ParallelBlobListerTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void singlePageIsListedFlatWithoutSplitting() throws Exception {
+        BlobContainerClient container = mock(BlobContainerClient.class);
+        when(container.getAccountUrl()).thenReturn("https://lister.blob.core.windows.net");
+        when(container.getAccountInfo(null)).thenThrow(mock(BlobStorageException.class));
+        PagedResponse<BlobItem> page = mock(PagedResponse.class);
+        when(page.getValue()).thenReturn(List.of(new BlobItem().setName("p/a"), new BlobItem().setName("p/b/c")));
+        PagedIterable<BlobItem> listing = mock(PagedIterable.class);
+        when(listing.iterableByPage()).thenReturn(new IterableStream<>(List.of(page)));
+        when(container.listBlobs(any(), any())).thenReturn(listing);
+
+        AtomicInteger seen = new AtomicInteger();
+        assertEquals(2, ParallelBlobLister.forEach(container, "p/", item -> seen.incrementAndGet()));
+        assertEquals(2, seen.get());
+        verify(container, times(1)).listBlobs(any(), any());
+        verify(container, never()).listBlobsByHierarchy(anyString(), any(), any());
+    }
+}
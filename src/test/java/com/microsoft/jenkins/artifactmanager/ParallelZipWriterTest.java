@@ -0,0 +1,66 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.apache.tools.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParallelZipWriterTest {
+
+    private static byte[] content(int length, int seed) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * seed);
+        }
+        return content;
+    }
+
+    private static ParallelZipWriter.Entry entry(String name, byte[] content) {
+        return new ParallelZipWriter.Entry(name, content.length, 1_600_000_000_000L,
+                (offset, count) -> Arrays.copyOfRange(content, (int) offset, (int) offset + count));
+    }
+
+    @Test
+    void writesEntriesInOrder() throws IOException {
+        List<byte[]> contents = List.of(content(5, 1), content(0, 2), content(95, 3), content(20, 5));
+        List<ParallelZipWriter.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < contents.size(); i++) {
+            entries.add(entry("dir/file" + i, contents.get(i)));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(out)) {
+            new ParallelZipWriter(entries, 10, 25).write(zos);
+        }
+
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            for (int i = 0; i < contents.size(); i++) {
+                ZipEntry zipEntry = zis.getNextEntry();
+                assertEquals("dir/file" + i, zipEntry.getName());
+                assertArrayEquals(contents.get(i), zis.readAllBytes());
+            }
+            assertNull(zis.getNextEntry());
+        }
+    }
+
+    @Test
+    void failsOnChangedBlob() {
+        byte[] content = content(5, 1);
+        List<ParallelZipWriter.Entry> entries = List.of(new ParallelZipWriter.Entry("a", 10, 0,
+                (offset, count) -> content));
+        ZipOutputStream zos = new ZipOutputStream(new ByteArrayOutputStream());
+        assertThrows(IOException.class, () -> new ParallelZipWriter(entries, 10, 25).write(zos));
+    }
+}
@@ -0,0 +1,45 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageExecutorTest {
+
+    @Test
+    void runsAtMostParallelismTasksAtOnce() throws Exception {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < StorageExecutor.parallelism() * 4; i++) {
+            items.add(i);
+        }
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        StorageExecutor.forEach(items, item -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            TimeUnit.MILLISECONDS.sleep(5);
+            running.decrementAndGet();
+            done.incrementAndGet();
+        });
+        assertEquals(items.size(), done.get());
+        assertTrue(maxRunning.get() <= StorageExecutor.parallelism());
+    }
+
+    @Test
+    void propagatesFailure() {
+        IOException e = assertThrows(IOException.class, () -> StorageExecutor.forEach(List.of(1, 2, 3), item -> {
+            if (item == 2) {
+                throw new IllegalStateException("boom");
+            }
+        }));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,48 @@
+package com.microsoft.jenkins.artifactmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class UtilsTest {
+
+    @Test
+    void secondaryEndpoint() {
+        assertEquals("https://account-secondary.blob.core.windows.net/",
+                Utils.getSecondaryEndpoint("https://account.blob.core.windows.net/", "account"));
+        assertEquals("https://account-secondary.blob.core.chinacloudapi.cn",
+                Utils.getSecondaryEndpoint("https://account.blob.core.chinacloudapi.cn", "account"));
+        assertEquals("https://Account-secondary.blob.core.windows.net/",
+                Utils.getSecondaryEndpoint("https://Account.blob.core.windows.net/", "account"));
+
+        // custom domains and emulators do not follow the naming scheme
+        assertNull(Utils.getSecondaryEndpoint("https://artifacts.example.com/", "account"));
+        assertNull(Utils.getSecondaryEndpoint("http://127.0.0.1:10000/account", "account"));
+        assertNull(Utils.getSecondaryEndpoint("https://accountant.blob.core.windows.net/", "account"));
+        assertNull(Utils.getSecondaryEndpoint(null, "account"));
+    }
+
+    @Test
+    void lruMapEvictsLeastRecentlyUsed() {
+        Map<String, Integer> map = Utils.lruMap(2);
+        map.put("a", 1);
+        map.put("b", 2);
+        map.get("a");
+        map.put("c", 3);
+        assertEquals(Set.of("a", "c"), map.keySet());
+    }
+
+    @Test
+    void fingerprintDoesNotContainKey() {
+        String key = "c2VjcmV0LWFjY291bnQta2V5";
+        assertEquals(Utils.fingerprint(key), Utils.fingerprint(key));
+        assertNotEquals(Utils.fingerprint(key), Utils.fingerprint(key + "x"));
+        assertFalse(Utils.fingerprint(key).contains(key));
+    }
+}